@@ -0,0 +1,72 @@
+package nfa.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import nfa.CompiledDfa;
+import nfa.Operations;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Match throughput of the compiled DFA on states it can skip through: a
+ * state looping on all but one char, one looping on all but three, and an
+ * accepting sink entered at the first char. Add --add-modules
+ * jdk.incubator.vector to the JVM arguments, with the engine built with
+ * the vector profile, to measure the SIMD skip loop.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccelerationBenchmark {
+
+	@Param({ "1024", "65536" })
+	public int length;
+
+	private String input;
+
+	private String sinkInput;
+
+	private CompiledDfa oneEscape;
+
+	private CompiledDfa threeEscapes;
+
+	private CompiledDfa sink;
+
+	@Setup
+	public void setup() {
+		String text = Patterns.input("abcdefghijklmnopqrstuvwxyz", length - 1);
+		input = text + ";";
+		sinkInput = "!" + text;
+		oneEscape = Operations.compileRegex("[^;]*;");
+		threeEscapes = Operations.compileRegex("[^;,:]*(;|,|:)");
+		sink = Operations.compileRegex("!.*");
+	}
+
+	@Benchmark
+	public boolean oneEscape() {
+		return oneEscape.matches(input);
+	}
+
+	@Benchmark
+	public boolean threeEscapes() {
+		return threeEscapes.matches(input);
+	}
+
+	@Benchmark
+	public boolean sink() {
+		return sink.matches(sinkInput);
+	}
+}
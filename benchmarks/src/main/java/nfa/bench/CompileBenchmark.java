@@ -0,0 +1,86 @@
+package nfa.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import nfa.CompiledDfa;
+import nfa.Operations;
+import nfa.RegExConverter;
+import nfa.Regex;
+import nfa.Table;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time of every compilation step against the size of the pattern: the
+ * conversion to postfix, the Thompson construction, the subset
+ * construction to a State/Table DFA, and the whole path to a minimized
+ * CompiledDfa. The whole path is also run from the Thompson and from the
+ * Glushkov NFA, to compare the two constructions.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompileBenchmark {
+
+	/* Number of groups in the pattern */
+	@Param({ "4", "16", "64", "256" })
+	public int size;
+
+	private String infix;
+
+	private String postfix;
+
+	private Table nfa;
+
+	@Setup
+	public void setup() {
+		infix = Patterns.ofSize(size);
+		postfix = RegExConverter.infixToPostfix(infix);
+		nfa = new Operations().createNFA(postfix);
+	}
+
+	@Benchmark
+	public String infixToPostfix() {
+		return RegExConverter.infixToPostfix(infix);
+	}
+
+	@Benchmark
+	public Table createNFA() {
+		return new Operations().createNFA(postfix);
+	}
+
+	@Benchmark
+	public Table convertNfaToDfa() {
+		return new Operations().convertNfaToDfa(nfa);
+	}
+
+	@Benchmark
+	public CompiledDfa compileRegex() {
+		return Operations.compileRegex(infix);
+	}
+
+	@Benchmark
+	public Regex thompson() {
+		return Regex.compile(infix, Regex.Engine.DFA,
+				Regex.Construction.THOMPSON);
+	}
+
+	@Benchmark
+	public Regex glushkov() {
+		return Regex.compile(infix, Regex.Engine.DFA,
+				Regex.Construction.GLUSHKOV);
+	}
+}
@@ -0,0 +1,65 @@
+package nfa.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import nfa.Match;
+import nfa.Regex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of one search against the length of the input, for the
+ * leftmost-longest find and the earliest match. The only match starts in
+ * the middle of the input and could be extended to its end, so find reads
+ * all of it while the earliest match stops right after the match begins.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FindBenchmark {
+
+	static final String PATTERN = "d(a|b|c)*";
+
+	@Param({ "1024", "65536" })
+	public int length;
+
+	private String input;
+
+	private Regex regex;
+
+	@Setup
+	public void setup() {
+		input = Patterns.input("abc", length / 2) + "d"
+				+ Patterns.input("abc", length - length / 2 - 1);
+		regex = Regex.compile(PATTERN, Regex.Engine.DFA);
+		regex.find(input);
+	}
+
+	@Benchmark
+	public Match find() {
+		return regex.find(input);
+	}
+
+	@Benchmark
+	public Match findEarliest() {
+		return regex.findEarliest(input, 0);
+	}
+
+	@Benchmark
+	public boolean containsMatch() {
+		return regex.containsMatch(input);
+	}
+}
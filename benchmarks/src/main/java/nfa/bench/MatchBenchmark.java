@@ -0,0 +1,99 @@
+package nfa.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import nfa.CompiledDfa;
+import nfa.Operations;
+import nfa.RegExConverter;
+import nfa.Regex;
+import nfa.Table;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Match throughput against the length of the input, for the State/Table
+ * walk of Operations.check, the compiled DFA and every Regex engine. The
+ * input is accepted, so each run reads all of it.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchBenchmark {
+
+	static final String PATTERN = "(a|b|c)*abc(a|b|c)*";
+
+	@Param({ "16", "1024", "65536" })
+	public int length;
+
+	private String input;
+
+	private Operations ob;
+
+	private Table dfaTable;
+
+	private CompiledDfa dfa;
+
+	private Regex dfaRegex;
+
+	private Regex lazyRegex;
+
+	private Regex pikeRegex;
+
+	private Regex bitParallelRegex;
+
+	@Setup
+	public void setup() {
+		input = Patterns.input("abc", length - 3) + "abc";
+		ob = new Operations();
+		dfaTable = ob.convertNfaToDfa(ob.createNFA(RegExConverter
+				.infixToPostfix(PATTERN)));
+		dfa = Operations.compileRegex(PATTERN);
+		dfaRegex = Regex.compile(PATTERN, Regex.Engine.DFA);
+		lazyRegex = Regex.compile(PATTERN, Regex.Engine.LAZY_DFA);
+		pikeRegex = Regex.compile(PATTERN, Regex.Engine.PIKE_VM);
+		bitParallelRegex = Regex.compile(PATTERN, Regex.Engine.BIT_PARALLEL);
+	}
+
+	@Benchmark
+	public boolean checkTable() {
+		return ob.check(dfaTable, input);
+	}
+
+	@Benchmark
+	public boolean compiledDfa() {
+		return dfa.matches(input);
+	}
+
+	@Benchmark
+	public boolean regexDfa() {
+		return dfaRegex.matches(input);
+	}
+
+	@Benchmark
+	public boolean regexLazyDfa() {
+		return lazyRegex.matches(input);
+	}
+
+	@Benchmark
+	public boolean regexPikeVm() {
+		return pikeRegex.matches(input);
+	}
+
+	@Benchmark
+	public boolean regexBitParallel() {
+		return bitParallelRegex.matches(input);
+	}
+}
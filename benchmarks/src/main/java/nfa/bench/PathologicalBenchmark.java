@@ -0,0 +1,71 @@
+package nfa.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import nfa.Operations;
+import nfa.RegExConverter;
+import nfa.Regex;
+import nfa.Table;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Patterns whose DFA is exponential in the size of the pattern. The full
+ * subset construction is timed against the lazy DFA and the Pike VM, which
+ * only ever build the states an input reaches.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathologicalBenchmark {
+
+	/* The DFA has 2^(n+1) states */
+	@Param({ "8", "12", "16" })
+	public int n;
+
+	private Table nfa;
+
+	private String input;
+
+	private Regex lazyRegex;
+
+	private Regex pikeRegex;
+
+	@Setup
+	public void setup() {
+		String pattern = Patterns.exponential(n);
+		nfa = new Operations().createNFA(RegExConverter
+				.infixToPostfix(pattern));
+		input = Patterns.input("ab", 4096);
+		lazyRegex = Regex.compile(pattern, Regex.Engine.LAZY_DFA);
+		pikeRegex = Regex.compile(pattern, Regex.Engine.PIKE_VM);
+	}
+
+	@Benchmark
+	public Table convertNfaToDfa() {
+		return new Operations().convertNfaToDfa(nfa);
+	}
+
+	@Benchmark
+	public boolean lazyDfa() {
+		return lazyRegex.matches(input);
+	}
+
+	@Benchmark
+	public boolean pikeVm() {
+		return pikeRegex.matches(input);
+	}
+}
@@ -0,0 +1,69 @@
+package nfa.bench;
+
+import java.util.Random;
+
+/**
+ * Builds the patterns and inputs shared by the benchmarks. Everything is
+ * derived from fixed seeds so that runs can be compared.
+ * */
+final class Patterns {
+
+	private Patterns() {
+	}
+
+	/**
+	 * Returns a pattern with size groups, each a small union of literals
+	 * under a star or not, so the NFA grows linearly with size
+	 *
+	 * @param size
+	 *            the number of groups
+	 * @return the pattern in infix form
+	 * */
+	static String ofSize(int size) {
+		Random r = new Random(size);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			char a = (char) ('a' + r.nextInt(4));
+			char b = (char) ('a' + r.nextInt(4));
+			sb.append('(').append(a).append(b).append('|').append(b)
+					.append(')');
+			if (r.nextInt(3) == 0)
+				sb.append('*');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns (a|b)*a(a|b)...(a|b) with n trailing groups, whose DFA has
+	 * 2^(n+1) states: the subset construction blows up on it
+	 *
+	 * @param n
+	 *            the number of groups after the a
+	 * @return the pattern in infix form
+	 * */
+	static String exponential(int n) {
+		StringBuilder sb = new StringBuilder("(a|b)*a");
+		for (int i = 0; i < n; i++) {
+			sb.append("(a|b)");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns a random string over the given alphabet
+	 *
+	 * @param alphabet
+	 *            the chars to pick from
+	 * @param length
+	 *            the length of the string
+	 * @return the string
+	 * */
+	static String input(String alphabet, int length) {
+		Random r = new Random(length);
+		char[] c = new char[length];
+		for (int i = 0; i < length; i++) {
+			c[i] = alphabet.charAt(r.nextInt(alphabet.length()));
+		}
+		return new String(c);
+	}
+}
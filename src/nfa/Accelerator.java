@@ -0,0 +1,98 @@
+package nfa;
+
+/**
+ * Finds the next char of an input that leaves an accelerated DFA state,
+ * one that loops on every char but a few escapes. The chars before it need
+ * no transition at all, so they are compared with the escapes many at a
+ * time instead of being looked up one by one.
+ *
+ * With the vector profile, VectorSkipper compares a whole SIMD register of
+ * chars per step through the jdk.incubator.vector API. It is only used
+ * when the JVM runs with --add-modules jdk.incubator.vector, and for the
+ * inputs that can copy their chars in bulk. Otherwise a single escape in
+ * the rest of a String is left to String.indexOf, which the JIT already
+ * vectorizes, and anything else gets a plain scalar loop.
+ * */
+final class Accelerator {
+
+	/* Most escapes of an accelerated state */
+	static final int MAX_ESCAPES = 3;
+
+	/* Shortest run worth the setup of the vector loop */
+	private static final int VECTOR_THRESHOLD = 32;
+
+	/* Skips over the escapes of an input */
+	interface Skipper {
+
+		/**
+		 * @return the offset of the first char of str[from..to) that is
+		 *         one of the escapes, to if there is none
+		 * */
+		int skip(CharSequence str, int from, int to, char[] escapes);
+	}
+
+	/* The vector loop, null if it is not compiled in or not available */
+	private static final Skipper VECTOR = loadVector();
+
+	private Accelerator() {
+	}
+
+	/**
+	 * Returns the first offset of str[from..to) holding one of the escapes
+	 *
+	 * @param str
+	 *            the input
+	 * @param from
+	 *            the first offset to look at
+	 * @param to
+	 *            the offset after the last one to look at
+	 * @param escapes
+	 *            at most MAX_ESCAPES chars
+	 * @return the offset of the escape, to if there is none
+	 * */
+	static int skip(CharSequence str, int from, int to, char[] escapes) {
+		/* indexOf cannot stop at to, so it only gets the tail of a String */
+		if (escapes.length == 1 && str instanceof String
+				&& to == str.length()) {
+			int i = ((String) str).indexOf(escapes[0], from);
+			return i == -1 ? to : i;
+		}
+		if (VECTOR != null && to - from >= VECTOR_THRESHOLD
+				&& (str instanceof String || str instanceof StringBuilder))
+			return VECTOR.skip(str, from, to, escapes);
+
+		return scalarSkip(str, from, to, escapes);
+	}
+
+	static int scalarSkip(CharSequence str, int from, int to, char[] escapes) {
+		char e0 = escapes[0];
+		char e1 = escapes.length > 1 ? escapes[1] : e0;
+		char e2 = escapes.length > 2 ? escapes[2] : e0;
+
+		for (int i = from; i < to; i++) {
+			char c = str.charAt(i);
+			if (c == e0 || c == e1 || c == e2)
+				return i;
+		}
+		return to;
+	}
+
+	/**
+	 * @return true if the vector loop is in use
+	 * */
+	static boolean isVectorized() {
+		return VECTOR != null;
+	}
+
+	private static Skipper loadVector() {
+		try {
+			return (Skipper) Class.forName("nfa.VectorSkipper")
+					.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			return null;
+		} catch (LinkageError e) {
+			/* Compiled in, but the incubator module is not on the JVM */
+			return null;
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package nfa;
+
+import java.util.List;
+
+/**
+ * Matches many short inputs against one compiled DFA. The inputs are given
+ * as an array or list, or as one columnar char buffer cut by an offsets
+ * array, and the results come back as a bitmap with bit i set if input i
+ * is accepted.
+ *
+ * A single DFA walk spends most of its time waiting for the next table
+ * load, since each one depends on the previous. The inputs are instead
+ * taken four at a time and walked in lockstep over the length of the
+ * shortest of them, with the four states kept in locals, so the loads of
+ * the four walks are independent and overlap. The dead state leads back to
+ * itself, so the lockstep part needs no exit test; the tail of each input
+ * past the shortest is then finished on its own.
+ *
+ * Instances are immutable and can be shared between threads.
+ * */
+public final class BatchMatcher {
+
+	private final CompiledDfa dfa;
+
+	private final int[] table;
+
+	private final int[] map;
+
+	private final int tailClass;
+
+	private final int k;
+
+	/**
+	 * Creates a batch matcher for the given dfa
+	 *
+	 * @param dfa
+	 *            the compiled dfa
+	 * */
+	public BatchMatcher(CompiledDfa dfa) {
+		this.dfa = dfa;
+		this.table = dfa.table();
+		this.map = dfa.getClasses().map();
+		this.tailClass = dfa.getClasses().tailClass();
+		this.k = dfa.getClasses().getClassCount();
+	}
+
+	/**
+	 * Checks which of the given inputs are accepted as a whole
+	 *
+	 * @param inputs
+	 *            the strings to be tested
+	 * @return bitmap with bit i set if inputs.get(i) is accepted
+	 * */
+	public long[] matches(List<? extends CharSequence> inputs) {
+		return matches(inputs.toArray(new CharSequence[inputs.size()]));
+	}
+
+	/**
+	 * Checks which of the given inputs are accepted as a whole
+	 *
+	 * @param inputs
+	 *            the strings to be tested
+	 * @return bitmap with bit i set if inputs[i] is accepted
+	 * */
+	public long[] matches(CharSequence[] inputs) {
+		int count = inputs.length;
+		long[] result = new long[(count + 63) >>> 6];
+		int start = dfa.getStartState();
+
+		int i = 0;
+		for (; i + 4 <= count; i += 4) {
+			CharSequence a = inputs[i], b = inputs[i + 1];
+			CharSequence c = inputs[i + 2], d = inputs[i + 3];
+			int n = Math.min(Math.min(a.length(), b.length()),
+					Math.min(c.length(), d.length()));
+
+			int sa = start, sb = start, sc = start, sd = start;
+			for (int j = 0; j < n; j++) {
+				sa = table[sa * k + classOf(a.charAt(j))];
+				sb = table[sb * k + classOf(b.charAt(j))];
+				sc = table[sc * k + classOf(c.charAt(j))];
+				sd = table[sd * k + classOf(d.charAt(j))];
+			}
+
+			set(result, i, finish(a, n, sa));
+			set(result, i + 1, finish(b, n, sb));
+			set(result, i + 2, finish(c, n, sc));
+			set(result, i + 3, finish(d, n, sd));
+		}
+
+		for (; i < count; i++) {
+			set(result, i, finish(inputs[i], 0, start));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Checks which of the inputs stored in a columnar buffer are accepted as
+	 * a whole. Input i is chars[offsets[i]] up to, excluding,
+	 * chars[offsets[i + 1]].
+	 *
+	 * @param chars
+	 *            the chars of all the inputs, one after the other
+	 * @param offsets
+	 *            the start of every input, followed by the end of the last
+	 * @param count
+	 *            the number of inputs
+	 * @return bitmap with bit i set if input i is accepted
+	 * */
+	public long[] matches(char[] chars, int[] offsets, int count) {
+		if (count < 0 || offsets.length < count + 1)
+			throw new IllegalArgumentException("need " + (count + 1)
+					+ " offsets, got " + offsets.length);
+
+		long[] result = new long[(count + 63) >>> 6];
+		int start = dfa.getStartState();
+
+		int i = 0;
+		for (; i + 4 <= count; i += 4) {
+			int pa = offsets[i], pb = offsets[i + 1];
+			int pc = offsets[i + 2], pd = offsets[i + 3];
+			int end = offsets[i + 4];
+			int n = Math.min(Math.min(pb - pa, pc - pb),
+					Math.min(pd - pc, end - pd));
+
+			int sa = start, sb = start, sc = start, sd = start;
+			for (int j = 0; j < n; j++) {
+				sa = table[sa * k + classOf(chars[pa + j])];
+				sb = table[sb * k + classOf(chars[pb + j])];
+				sc = table[sc * k + classOf(chars[pc + j])];
+				sd = table[sd * k + classOf(chars[pd + j])];
+			}
+
+			set(result, i, finish(chars, pa + n, pb, sa));
+			set(result, i + 1, finish(chars, pb + n, pc, sb));
+			set(result, i + 2, finish(chars, pc + n, pd, sc));
+			set(result, i + 3, finish(chars, pd + n, end, sd));
+		}
+
+		for (; i < count; i++) {
+			set(result, i, finish(chars, offsets[i], offsets[i + 1], start));
+		}
+
+		return result;
+	}
+
+	private int classOf(char c) {
+		return c < map.length ? map[c] : tailClass;
+	}
+
+	/*
+	 * Runs the rest of one input from the given state, returns the state it
+	 * ends in
+	 */
+	private int finish(CharSequence str, int from, int state) {
+		for (int i = from, n = str.length(); i < n
+				&& state != CompiledDfa.DEAD; i++) {
+			state = table[state * k + classOf(str.charAt(i))];
+		}
+		return state;
+	}
+
+	private int finish(char[] chars, int from, int to, int state) {
+		for (int i = from; i < to && state != CompiledDfa.DEAD; i++) {
+			state = table[state * k + classOf(chars[i])];
+		}
+		return state;
+	}
+
+	private void set(long[] result, int i, int state) {
+		if (dfa.isAccepting(state))
+			result[i >>> 6] |= 1L << i;
+	}
+}
@@ -0,0 +1,184 @@
+package nfa;
+
+import java.util.Arrays;
+
+/**
+ * Simulates a small epsilon free NFA with its set of active states held in
+ * the bits of one long, so that a step costs a few table lookups and an
+ * AND, whatever the number of states active, and nothing is determinized.
+ *
+ * This works for the NFAs where all the transitions into a state are on
+ * the same chars, which is the case of every state of a position
+ * automaton. The states entered on a char c from a set D are then the
+ * successors of D that can be entered on c:
+ *
+ * D' = follow(D) & mask(c)
+ *
+ * follow(D) is looked up by bytes of D in tables of 256 precomputed
+ * unions, and mask(c) by the class of c. For a plain string the follow
+ * sets are the next positions, and this is the Shift-And algorithm.
+ *
+ * Instances are immutable and can be shared between threads.
+ * */
+public final class BitParallelMatcher implements DfaMatcher {
+
+	/* The most states that fit in the bits of a long */
+	static final int MAX_STATES = 64;
+
+	private final int[] map;
+
+	private final int tailClass;
+
+	/* The states entered on each char class */
+	private final long[] masks;
+
+	/*
+	 * follow[k][b] is the union of the successors of the states 8k + i for
+	 * the bits i set in b
+	 */
+	private final long[][] follow;
+
+	private final long start;
+
+	private final long accept;
+
+	private BitParallelMatcher(CharClasses classes, long[] masks,
+			long[][] follow, long start, long accept) {
+		this.map = classes.map();
+		this.tailClass = classes.tailClass();
+		this.masks = masks;
+		this.follow = follow;
+		this.start = start;
+		this.accept = accept;
+	}
+
+	/**
+	 * Builds the matcher of a pattern from the position automaton of its
+	 * tree
+	 *
+	 * @param tree
+	 *            the syntax tree of the pattern
+	 * @return the matcher, null if the pattern has too many positions
+	 * */
+	static BitParallelMatcher compile(RegexNode tree) {
+		if (positions(tree) + 1 > MAX_STATES)
+			return null;
+
+		return of(GlushkovConstruction.build(tree));
+	}
+
+	/**
+	 * Builds the matcher of the given nfa
+	 *
+	 * @param nfa
+	 *            an epsilon free nfa, as built by GlushkovConstruction
+	 * @return the matcher, null if the nfa has more than MAX_STATES states,
+	 *         epsilon edges, or a state entered on different chars
+	 * */
+	static BitParallelMatcher of(Nfa nfa) {
+		int n = nfa.stateCount;
+		if (n > MAX_STATES || nfa.patterns != null)
+			return null;
+
+		CharClasses classes = nfa.charClasses();
+		Nfa.ClassMoves moves = nfa.classTransitions(classes);
+		long[] masks = new long[classes.getClassCount()];
+		long[] successors = new long[n];
+
+		/* The classes entering each state, the same from every source */
+		long[][] entering = new long[n][];
+		int words = (classes.getClassCount() + 63) >>> 6;
+		if (nfa.epsilonTargets.length > 0)
+			return null;
+		for (int s = 0; s < n; s++) {
+			long[][] from = new long[n][];
+			for (int i = moves.start[s]; i < moves.start[s + 1]; i += 2) {
+				int cls = moves.moves[i];
+				int t = moves.moves[i + 1];
+				if (from[t] == null)
+					from[t] = new long[words];
+				from[t][cls >>> 6] |= 1L << cls;
+				masks[cls] |= 1L << t;
+				successors[s] |= 1L << t;
+			}
+			for (int t = 0; t < n; t++) {
+				if (from[t] == null)
+					continue;
+				if (entering[t] == null)
+					entering[t] = from[t];
+				else if (!Arrays.equals(entering[t], from[t]))
+					return null;
+			}
+		}
+
+		int chunks = (n + 7) >>> 3;
+		long[][] follow = new long[chunks][256];
+		for (int k = 0; k < chunks; k++) {
+			for (int b = 1; b < 256; b++) {
+				/* The lowest bit of b, plus what the others already give */
+				int low = Integer.numberOfTrailingZeros(b);
+				int s = 8 * k + low;
+				long succ = s < n ? successors[s] : 0;
+				follow[k][b] = follow[k][b & (b - 1)] | succ;
+			}
+		}
+
+		long accept = 0;
+		for (int s = 0; s < n; s++) {
+			if (nfa.accepting[s])
+				accept |= 1L << s;
+		}
+
+		return new BitParallelMatcher(classes, masks, follow,
+				1L << nfa.start, accept);
+	}
+
+	/**
+	 * Checks if the whole of the given input is accepted
+	 *
+	 * @param str
+	 *            the string to be tested
+	 * */
+	@Override
+	public boolean matches(CharSequence str) {
+		final int[] map = this.map;
+		final long[] masks = this.masks;
+		long d = start;
+
+		for (int i = 0, n = str.length(); i < n; i++) {
+			char c = str.charAt(i);
+			d = follow(d) & masks[c < map.length ? map[c] : tailClass];
+			if (d == 0)
+				return false;
+		}
+
+		return (d & accept) != 0;
+	}
+
+	/*
+	 * The union of the successors of the states of d
+	 */
+	private long follow(long d) {
+		final long[][] follow = this.follow;
+		long r = 0;
+		for (int k = 0; d != 0; k++) {
+			r |= follow[k][(int) d & 0xFF];
+			d >>>= 8;
+		}
+		return r;
+	}
+
+	/*
+	 * Counts the char sets of the tree, the positions of its automaton
+	 */
+	private static int positions(RegexNode n) {
+		if (n.kind == RegexNode.Kind.CHARS)
+			return 1;
+
+		int p = 0;
+		for (RegexNode c : n.children) {
+			p += positions(c);
+		}
+		return p;
+	}
+}
@@ -0,0 +1,582 @@
+package nfa;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Turns a compiled DFA into a hidden class whose matches method is the DFA
+ * itself. The method is one loop that reads a char and switches on the
+ * state, kept in a local; the case of every state compares the char with
+ * its ranges as constants and stores the next state, also a constant. No
+ * table is loaded, and the JIT keeps the state and the position in
+ * registers.
+ *
+ * The generated code runs well ahead of the table when the input follows a
+ * predictable path through the DFA, and behind it when the next state
+ * cannot be guessed from one char to the next, since the table walk has no
+ * branch to mispredict. It is an optional backend for the patterns known
+ * to fit the first case.
+ *
+ * The class file is written by hand, in the version 49 format so that no
+ * stack map frames are needed, and defined in this package with
+ * MethodHandles.Lookup.defineHiddenClass. HotSpot does not compile methods
+ * bigger than 8000 bytes of bytecode, so a DFA with more than MAX_STATES
+ * states, or whose code would be too big, is left to the table driven
+ * matcher.
+ * */
+public final class BytecodeCompiler {
+
+	/* Biggest DFA turned into bytecode */
+	static final int MAX_STATES = 256;
+
+	/* Biggest method the JIT still compiles, see -XX:-DontCompileHugeMethods */
+	static final int MAX_CODE_SIZE = 8000;
+
+	/* Most live chars of a state that dispatches with a lookupswitch */
+	private static final int MAX_SWITCH_CHARS = 64;
+
+	private static final String CLASS_NAME = "nfa/GeneratedDfaMatcher";
+
+	/* Locals of the generated matches method */
+	private static final int POS = 3, CHAR = 4, STATE = 5;
+
+	private BytecodeCompiler() {
+	}
+
+	/**
+	 * Compiles the DFA given in the table into a generated matcher
+	 *
+	 * @param dfaTbl
+	 *            a DFA as returned by Operations.convertNfaToDfa
+	 * @return the generated matcher, or the compiled dfa if it is too big
+	 * */
+	public static DfaMatcher compile(Table dfaTbl) {
+		return compile(DfaMinimizer.minimize(CompiledDfa.fromTable(dfaTbl)));
+	}
+
+	/**
+	 * Compiles the given dfa into a generated matcher
+	 *
+	 * @param dfa
+	 *            the compiled dfa
+	 * @return the generated matcher, or dfa itself if it is too big
+	 * */
+	public static DfaMatcher compile(CompiledDfa dfa) {
+		if (dfa.getStateCount() > MAX_STATES)
+			return dfa;
+
+		ConstantPool cp = new ConstantPool();
+		byte[] code = matchesCode(dfa, cp);
+		if (code == null)
+			return dfa;
+
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup()
+					.defineHiddenClass(classFile(code, cp), true);
+			return (DfaMatcher) lookup.findConstructor(lookup.lookupClass(),
+					MethodType.methodType(void.class)).invoke();
+		} catch (Throwable t) {
+			throw new IllegalStateException("cannot define generated matcher",
+					t);
+		}
+	}
+
+	/*
+	 * Generates the code of matches(CharSequence), null if it is bigger
+	 * than MAX_CODE_SIZE
+	 */
+	private static byte[] matchesCode(CompiledDfa dfa, ConstantPool cp) {
+		int n = dfa.getStateCount();
+		Code c = new Code(cp);
+
+		/*
+		 * Label s is the case of state s, label n + t stores state t and goes
+		 * on with the loop
+		 */
+		c.reserveLabels(2 * n);
+		int loop = c.newLabel();
+		int end = c.newLabel();
+		int accept = c.newLabel();
+		int reject = c.newLabel();
+
+		c.op(ALOAD_1);
+		c.invokeLength();
+		c.op(ISTORE_2);
+		c.op(ICONST_0);
+		c.op(ISTORE_3);
+		c.pushInt(dfa.getStartState());
+		c.op(ISTORE, STATE);
+
+		c.bind(loop);
+		c.op(ILOAD_3);
+		c.op(ILOAD_2);
+		c.jump(IF_ICMPGE, end);
+		c.op(ALOAD_1);
+		c.op(ILOAD_3);
+		c.invokeCharAt();
+		c.op(ISTORE, CHAR);
+		c.op(IINC, POS, 1);
+		c.op(ILOAD, STATE);
+		int[] cases = new int[n];
+		for (int s = 0; s < n; s++) {
+			cases[s] = s == CompiledDfa.DEAD ? reject : s;
+		}
+		c.tableSwitch(reject, cases);
+
+		for (int s = 0; s < n; s++) {
+			if (s == CompiledDfa.DEAD)
+				continue;
+			c.bind(s);
+			dispatch(c, dfa, s, loop, reject);
+			if (c.size() > MAX_CODE_SIZE)
+				return null;
+		}
+
+		for (int t = 0; t < n; t++) {
+			if (t == CompiledDfa.DEAD)
+				continue;
+			c.bind(n + t);
+			c.pushInt(t);
+			c.op(ISTORE, STATE);
+			c.jump(GOTO, loop);
+		}
+
+		/* At the end of the input, accept or reject */
+		int accepting = 0;
+		for (int s = 0; s < n; s++) {
+			if (dfa.isAccepting(s))
+				accepting++;
+		}
+		int[] keys = new int[accepting];
+		int[] targets = new int[accepting];
+		for (int s = 0, i = 0; s < n; s++) {
+			if (dfa.isAccepting(s)) {
+				keys[i] = s;
+				targets[i++] = accept;
+			}
+		}
+		c.bind(end);
+		c.op(ILOAD, STATE);
+		c.lookupSwitch(reject, keys, targets);
+		c.bind(accept);
+		c.op(ICONST_1);
+		c.op(IRETURN);
+		c.bind(reject);
+		c.op(ICONST_0);
+		c.op(IRETURN);
+
+		c.resolve();
+		return c.size() > MAX_CODE_SIZE ? null : c.toByteArray();
+	}
+
+	/*
+	 * Jumps to the label storing the state reached from s on the char in
+	 * CHAR, straight back to the loop if that is s itself, to reject if it is
+	 * DEAD. The chars are cut into runs leading to the same state; a state
+	 * with few live chars uses a lookupswitch, any other a binary search over
+	 * the runs.
+	 */
+	private static void dispatch(Code c, CompiledDfa dfa, int s, int loop,
+			int reject) {
+		CharClasses classes = dfa.getClasses();
+		int[] map = classes.map();
+		int n = dfa.getStateCount();
+		int k = classes.getClassCount();
+		int[] table = dfa.table();
+
+		int[] runStart = new int[map.length + 2];
+		int[] runTarget = new int[map.length + 2];
+		int runs = 0;
+		int live = 0;
+		for (int ch = 0; ch <= map.length; ch++) {
+			int cls = ch < map.length ? map[ch] : classes.tailClass();
+			int t = table[s * k + cls];
+			int label = t == CompiledDfa.DEAD ? reject : t == s ? loop : n + t;
+			if (t != CompiledDfa.DEAD && ch < map.length)
+				live++;
+			if (runs == 0 || runTarget[runs - 1] != label) {
+				runStart[runs] = ch;
+				runTarget[runs++] = label;
+			}
+		}
+
+		boolean tailDead = runTarget[runs - 1] == reject;
+		if (tailDead && live <= MAX_SWITCH_CHARS) {
+			int[] keys = new int[live];
+			int[] labels = new int[live];
+			int i = 0;
+			for (int ch = 0; ch < map.length; ch++) {
+				int t = table[s * k + map[ch]];
+				if (t != CompiledDfa.DEAD) {
+					keys[i] = ch;
+					labels[i++] = t == s ? loop : n + t;
+				}
+			}
+			c.op(ILOAD, CHAR);
+			c.lookupSwitch(reject, keys, labels);
+		} else {
+			search(c, runStart, runTarget, 0, runs - 1);
+		}
+	}
+
+	/*
+	 * Emits a binary search of CHAR over the runs from..to
+	 */
+	private static void search(Code c, int[] runStart, int[] runTarget,
+			int from, int to) {
+		if (from == to) {
+			c.jump(GOTO, runTarget[from]);
+			return;
+		}
+
+		int mid = (from + to + 1) >>> 1;
+		int low = c.newLabel();
+		c.op(ILOAD, CHAR);
+		c.pushInt(runStart[mid]);
+		c.jump(IF_ICMPLT, low);
+		search(c, runStart, runTarget, mid, to);
+		c.bind(low);
+		search(c, runStart, runTarget, from, mid - 1);
+	}
+
+	/*
+	 * Writes the class file of the matcher around the given code
+	 */
+	private static byte[] classFile(byte[] code, ConstantPool cp)
+			throws IOException {
+		int thisClass = cp.classRef(CLASS_NAME);
+		int object = cp.classRef("java/lang/Object");
+		int matcher = cp.classRef("nfa/DfaMatcher");
+		int objectInit = cp.methodRef(object, "<init>", "()V", false);
+		int init = cp.utf8("<init>");
+		int initType = cp.utf8("()V");
+		int matches = cp.utf8("matches");
+		int matchesType = cp.utf8("(Ljava/lang/CharSequence;)Z");
+		int codeAttr = cp.utf8("Code");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(49);
+		cp.writeTo(out);
+		out.writeShort(0x0031); /* public final super */
+		out.writeShort(thisClass);
+		out.writeShort(object);
+		out.writeShort(1);
+		out.writeShort(matcher);
+		out.writeShort(0);
+
+		out.writeShort(2);
+
+		byte[] initCode = { ALOAD_0, INVOKESPECIAL,
+				(byte) (objectInit >>> 8), (byte) objectInit, RETURN };
+		writeMethod(out, init, initType, codeAttr, 1, 1, initCode);
+		writeMethod(out, matches, matchesType, codeAttr, 2, 6, code);
+
+		out.writeShort(0);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void writeMethod(DataOutputStream out, int name, int type,
+			int codeAttr, int maxStack, int maxLocals, byte[] code)
+			throws IOException {
+		out.writeShort(0x0001); /* public */
+		out.writeShort(name);
+		out.writeShort(type);
+		out.writeShort(1);
+		out.writeShort(codeAttr);
+		out.writeInt(12 + code.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.length);
+		out.write(code);
+		out.writeShort(0);
+		out.writeShort(0);
+	}
+
+	/* Opcodes */
+	private static final byte ICONST_0 = 0x03, ICONST_1 = 0x04,
+			BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13, ILOAD = 0x15,
+			ILOAD_2 = 0x1c, ILOAD_3 = 0x1d, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b,
+			ISTORE = 0x36, ISTORE_2 = 0x3d, ISTORE_3 = 0x3e,
+			IINC = (byte) 0x84, IF_ICMPLT = (byte) 0xa1,
+			IF_ICMPGE = (byte) 0xa2, GOTO = (byte) 0xa7,
+			TABLESWITCH = (byte) 0xaa, LOOKUPSWITCH = (byte) 0xab, IRETURN = (byte) 0xac,
+			RETURN = (byte) 0xb1, INVOKESPECIAL = (byte) 0xb7,
+			INVOKEINTERFACE = (byte) 0xb9;
+
+	/*
+	 * The bytecode of a method, with labels resolved once all of it is
+	 * written. Jumps are emitted with 16 bit offsets, which MAX_CODE_SIZE
+	 * keeps in range.
+	 */
+	private static final class Code {
+
+		private byte[] buf = new byte[256];
+
+		private int size = 0;
+
+		/* Offset bound to each label, -1 until bound */
+		private int[] labels = new int[16];
+
+		private int labelCount = 0;
+
+		/* Pending jumps: the opcode offset, the operand offset, the label */
+		private int[] fixups = new int[48];
+
+		private int fixupCount = 0;
+
+		private final ConstantPool cp;
+
+		Code(ConstantPool cp) {
+			this.cp = cp;
+		}
+
+		/* Reserves the labels labelCount..labelCount+count-1 */
+		void reserveLabels(int count) {
+			while (labelCount + count > labels.length) {
+				labels = Arrays.copyOf(labels, 2 * labels.length);
+			}
+			Arrays.fill(labels, labelCount, labelCount + count, -1);
+			labelCount += count;
+		}
+
+		int newLabel() {
+			reserveLabels(1);
+			return labelCount - 1;
+		}
+
+		void bind(int label) {
+			labels[label] = size;
+		}
+
+		void op(byte opcode) {
+			put(opcode);
+		}
+
+		void op(byte opcode, int operand) {
+			put(opcode);
+			put(operand);
+		}
+
+		void op(byte opcode, int operand, int value) {
+			put(opcode);
+			put(operand);
+			put(value);
+		}
+
+		void jump(byte opcode, int label) {
+			int at = size;
+			put(opcode);
+			fixup(at, size, label);
+			put(0);
+			put(0);
+		}
+
+		void pushInt(int v) {
+			if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) {
+				op(BIPUSH, v);
+			} else if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+				put(SIPUSH);
+				put(v >>> 8);
+				put(v);
+			} else {
+				int index = cp.integer(v);
+				put(LDC_W);
+				put(index >>> 8);
+				put(index);
+			}
+		}
+
+		void lookupSwitch(int defaultLabel, int[] keys, int[] targets) {
+			int at = size;
+			put(LOOKUPSWITCH);
+			while (size % 4 != 0) {
+				put(0);
+			}
+			fixup(at, size, defaultLabel);
+			putInt(0);
+			putInt(keys.length);
+			for (int i = 0; i < keys.length; i++) {
+				putInt(keys[i]);
+				fixup(at, size, targets[i]);
+				putInt(0);
+			}
+		}
+
+		void tableSwitch(int defaultLabel, int[] targets) {
+			int at = size;
+			put(TABLESWITCH);
+			while (size % 4 != 0) {
+				put(0);
+			}
+			fixup(at, size, defaultLabel);
+			putInt(0);
+			putInt(0);
+			putInt(targets.length - 1);
+			for (int i = 0; i < targets.length; i++) {
+				fixup(at, size, targets[i]);
+				putInt(0);
+			}
+		}
+
+		void invokeLength() {
+			invokeInterface(cp.methodRef(cp.classRef("java/lang/CharSequence"),
+					"length", "()I", true), 1);
+		}
+
+		void invokeCharAt() {
+			invokeInterface(cp.methodRef(cp.classRef("java/lang/CharSequence"),
+					"charAt", "(I)C", true), 2);
+		}
+
+		private void invokeInterface(int ref, int argSlots) {
+			put(INVOKEINTERFACE);
+			put(ref >>> 8);
+			put(ref);
+			put(argSlots);
+			put(0);
+		}
+
+		int size() {
+			return size;
+		}
+
+		/*
+		 * Writes the offsets of all the jumps. A switch operand is 4 bytes,
+		 * any other 2.
+		 */
+		void resolve() {
+			for (int f = 0; f < fixupCount; f += 3) {
+				int at = fixups[f];
+				int operand = fixups[f + 1];
+				int offset = labels[fixups[f + 2]] - at;
+				if (buf[at] == LOOKUPSWITCH || buf[at] == TABLESWITCH) {
+					buf[operand] = (byte) (offset >>> 24);
+					buf[operand + 1] = (byte) (offset >>> 16);
+					buf[operand + 2] = (byte) (offset >>> 8);
+					buf[operand + 3] = (byte) offset;
+				} else {
+					buf[operand] = (byte) (offset >>> 8);
+					buf[operand + 1] = (byte) offset;
+				}
+			}
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buf, size);
+		}
+
+		private void fixup(int at, int operand, int label) {
+			if (fixupCount + 3 > fixups.length)
+				fixups = Arrays.copyOf(fixups, 2 * fixups.length);
+			fixups[fixupCount++] = at;
+			fixups[fixupCount++] = operand;
+			fixups[fixupCount++] = label;
+		}
+
+		private void putInt(int v) {
+			put(v >>> 24);
+			put(v >>> 16);
+			put(v >>> 8);
+			put(v);
+		}
+
+		private void put(int b) {
+			if (size == buf.length)
+				buf = Arrays.copyOf(buf, 2 * size);
+			buf[size++] = (byte) b;
+		}
+	}
+
+	/*
+	 * The constant pool of the generated class, each entry added once
+	 */
+	private static final class ConstantPool {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		private final DataOutputStream out = new DataOutputStream(bytes);
+
+		private final HashMap<String, Integer> index = new HashMap<String, Integer>();
+
+		/* Index of the next entry, the pool starts at 1 */
+		private int next = 1;
+
+		int utf8(String s) {
+			Integer i = index.get("U" + s);
+			if (i != null)
+				return i;
+			try {
+				out.writeByte(1);
+				out.writeUTF(s);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			return add("U" + s);
+		}
+
+		int integer(int v) {
+			Integer i = index.get("I" + v);
+			if (i != null)
+				return i;
+			try {
+				out.writeByte(3);
+				out.writeInt(v);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			return add("I" + v);
+		}
+
+		int classRef(String name) {
+			Integer i = index.get("C" + name);
+			if (i != null)
+				return i;
+			int nameIndex = utf8(name);
+			write(7, nameIndex);
+			return add("C" + name);
+		}
+
+		int methodRef(int owner, String name, String type, boolean onInterface) {
+			String key = "M" + owner + "." + name + type;
+			Integer i = index.get(key);
+			if (i != null)
+				return i;
+			int nameIndex = utf8(name);
+			int typeIndex = utf8(type);
+			write(12, nameIndex, typeIndex);
+			int nameAndType = add("N" + key);
+			write(onInterface ? 11 : 10, owner, nameAndType);
+			return add(key);
+		}
+
+		void writeTo(DataOutputStream dst) throws IOException {
+			dst.writeShort(next);
+			bytes.writeTo(dst);
+		}
+
+		private void write(int tag, int... indices) {
+			try {
+				out.writeByte(tag);
+				for (int i : indices) {
+					out.writeShort(i);
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private int add(String key) {
+			index.put(key, next);
+			return next++;
+		}
+	}
+}
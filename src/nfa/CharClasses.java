@@ -0,0 +1,349 @@
+package nfa;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import nfa.State.Transitions;
+
+/**
+ * Partitions the input alphabet into equivalence classes. Two characters
+ * are in the same class when no transition label distinguishes them, so a
+ * DFA only needs one column per class instead of one per character.
+ *
+ * The class of a character is found through a small map covering the
+ * characters up to the highest label boundary; every character above it
+ * shares a single tail class.
+ * */
+public final class CharClasses {
+
+	/* Class of each char below map.length */
+	private final int[] map;
+
+	/* Class of every char at or above map.length */
+	private final int tailClass;
+
+	/* Number of classes */
+	private final int classCount;
+
+	/* The lowest char of every class */
+	private final char[] representatives;
+
+	/* True for the classes covered by at least one label */
+	private final boolean[] labelled;
+
+	/* The map in runs of equal classes: run r starts at char runStarts[r] */
+	private final int[] runStarts;
+
+	private final int[] runClasses;
+
+	CharClasses(int[] map, int tailClass, int classCount,
+			char[] representatives, boolean[] labelled) {
+		this.map = map;
+		this.tailClass = tailClass;
+		this.classCount = classCount;
+		this.representatives = representatives;
+		this.labelled = labelled;
+
+		int runs = 0;
+		for (int c = 0; c < map.length; c++) {
+			if (c == 0 || map[c] != map[c - 1])
+				runs++;
+		}
+		runStarts = new int[runs];
+		runClasses = new int[runs];
+		runs = 0;
+		for (int c = 0; c < map.length; c++) {
+			if (c == 0 || map[c] != map[c - 1]) {
+				runStarts[runs] = c;
+				runClasses[runs++] = map[c];
+			}
+		}
+	}
+
+	/**
+	 * Computes the classes distinguished by the non epsilon transitions of
+	 * the states in the table
+	 *
+	 * @param tbl
+	 *            the table containing the states
+	 * @return the char classes
+	 * */
+	public static CharClasses fromTable(Table tbl) {
+		int n = 0;
+		for (State s : tbl.getsList()) {
+			n += s.getDirection().size();
+		}
+
+		char[] lo = new char[n];
+		char[] hi = new char[n];
+		n = 0;
+		for (State s : tbl.getsList()) {
+			for (Transitions t : s.getDirection()) {
+				if (t.epsilon)
+					continue;
+				lo[n] = t.ipChar;
+				hi[n] = t.hiChar;
+				n++;
+			}
+		}
+
+		return of(lo, hi, n);
+	}
+
+	/**
+	 * Computes the classes distinguished by the given labels, label i being
+	 * the inclusive range lo[i]..hi[i]
+	 *
+	 * @param lo
+	 *            the lower bounds of the labels
+	 * @param hi
+	 *            the upper bounds of the labels
+	 * @param count
+	 *            the number of labels
+	 * @return the char classes
+	 * */
+	public static CharClasses of(char[] lo, char[] hi, int count) {
+		/* Each distinct label only has to be applied once */
+		long[] ranges = new long[count];
+		for (int i = 0; i < count; i++) {
+			ranges[i] = ((long) lo[i] << 32) | hi[i];
+		}
+		Arrays.sort(ranges);
+
+		/* The labels cut the alphabet into elementary intervals */
+		int[] cuts = new int[2 * count];
+		for (int i = 0; i < count; i++) {
+			cuts[2 * i] = (int) (ranges[i] >>> 32);
+			cuts[2 * i + 1] = (int) (ranges[i] & 0xFFFF) + 1;
+		}
+		Arrays.sort(cuts);
+		int[] starts = new int[cuts.length + 1];
+		int intervals = 1;
+		for (int cut : cuts) {
+			if (cut != starts[intervals - 1] && cut <= Character.MAX_VALUE)
+				starts[intervals++] = cut;
+		}
+
+		/*
+		 * Two intervals are in the same class when the same labels cover
+		 * them. Every distinct label gets a random 128 bit key, XORed into
+		 * the interval where it starts and the one after it ends, so that a
+		 * single sweep over the intervals gives each one the XOR of the keys
+		 * of the labels covering it. Different sets of labels can still XOR
+		 * to the same signature, so a signature is only a candidate, checked
+		 * exactly with the bounds of the labels starting and ending between
+		 * the two intervals.
+		 */
+		Random random = ThreadLocalRandom.current();
+		long[] keyLo = new long[intervals];
+		long[] keyHi = new long[intervals];
+		int[] depth = new int[intervals + 1];
+
+		/* Lowest lo of the labels ending just before interval t */
+		int[] endLo = new int[intervals];
+		Arrays.fill(endLo, Integer.MAX_VALUE);
+
+		/* Highest hi of the labels starting at interval t */
+		int[] startHi = new int[intervals];
+		Arrays.fill(startHi, -1);
+
+		for (int i = 0; i < count; i++) {
+			if (i > 0 && ranges[i] == ranges[i - 1])
+				continue;
+
+			long k1 = random.nextLong(), k2 = random.nextLong();
+			int labelLo = (int) (ranges[i] >>> 32);
+			int labelHi = (int) (ranges[i] & 0xFFFF);
+			int from = Arrays.binarySearch(starts, 0, intervals, labelLo);
+			keyLo[from] ^= k1;
+			keyHi[from] ^= k2;
+			depth[from]++;
+			startHi[from] = Math.max(startHi[from], labelHi);
+
+			if (labelHi < Character.MAX_VALUE) {
+				int to = Arrays.binarySearch(starts, 0, intervals, labelHi + 1);
+				keyLo[to] ^= k1;
+				keyHi[to] ^= k2;
+				depth[to]--;
+				endLo[to] = Math.min(endLo[to], labelLo);
+			}
+		}
+
+		/*
+		 * Number the distinct label sets in the order of their lowest char.
+		 * The stacks hold the intervals up to the current one whose endLo
+		 * is below, and whose startHi is above, that of every later one, so
+		 * the first of them after an interval r holds the extreme of the
+		 * intervals since r.
+		 */
+		int[] cls = new int[intervals];
+		boolean[] covered = new boolean[intervals];
+		int size = Integer.highestOneBit(2 * intervals) * 2;
+		long[] slotLo = new long[size];
+		long[] slotHi = new long[size];
+		int[] slotClass = new int[size];
+		Arrays.fill(slotClass, -1);
+		int[] firstOf = new int[intervals];
+		int[] minStack = new int[intervals];
+		int[] maxStack = new int[intervals];
+		int minTop = 0, maxTop = 0;
+		int classCount = 0;
+		long sigLo = 0, sigHi = 0;
+		int active = 0;
+		for (int j = 0; j < intervals; j++) {
+			sigLo ^= keyLo[j];
+			sigHi ^= keyHi[j];
+			active += depth[j];
+			covered[j] = active > 0;
+
+			while (minTop > 0 && endLo[minStack[minTop - 1]] >= endLo[j]) {
+				minTop--;
+			}
+			minStack[minTop++] = j;
+			while (maxTop > 0 && startHi[maxStack[maxTop - 1]] <= startHi[j]) {
+				maxTop--;
+			}
+			maxStack[maxTop++] = j;
+
+			int h = (int) (sigLo ^ (sigLo >>> 29)) & (size - 1);
+			while (slotClass[h] != -1) {
+				if (slotLo[h] == sigLo && slotHi[h] == sigHi) {
+					/*
+					 * Interval r has the same labels as j if every label
+					 * ending in between started after r, and every label
+					 * starting in between ends before j
+					 */
+					int r = firstOf[slotClass[h]];
+					if (endLo[after(minStack, minTop, r)] > starts[r]
+							&& startHi[after(maxStack, maxTop, r)] < starts[j])
+						break;
+				}
+				h = (h + 1) & (size - 1);
+			}
+			if (slotClass[h] == -1) {
+				slotLo[h] = sigLo;
+				slotHi[h] = sigHi;
+				firstOf[classCount] = j;
+				slotClass[h] = classCount++;
+			}
+			cls[j] = slotClass[h];
+		}
+
+		char[] representatives = new char[classCount];
+		boolean[] labelled = new boolean[classCount];
+		for (int j = intervals - 1; j >= 0; j--) {
+			representatives[cls[j]] = (char) starts[j];
+			labelled[cls[j]] = covered[j];
+		}
+
+		int last = intervals - 1;
+		int[] map = new int[starts[last]];
+		for (int j = 0; j < last; j++) {
+			Arrays.fill(map, starts[j], starts[j + 1], cls[j]);
+		}
+
+		return new CharClasses(map, cls[last], classCount, representatives,
+				labelled);
+	}
+
+	/*
+	 * Returns the first interval of the stack after interval r, the stack
+	 * holding top increasing intervals, the last one after r
+	 */
+	private static int after(int[] stack, int top, int r) {
+		int lo = 0, hi = top - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (stack[mid] > r)
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+		return stack[lo];
+	}
+
+	/**
+	 * @param c
+	 *            the input character
+	 * @return the class of the character
+	 * */
+	public int classOf(char c) {
+		return c < map.length ? map[c] : tailClass;
+	}
+
+	/**
+	 * Puts the classes of the chars lo..hi into found. The range must not
+	 * split a class, as is the case for the labels the classes were computed
+	 * from.
+	 *
+	 * @param lo
+	 *            the lowest char of the range
+	 * @param hi
+	 *            the highest char of the range
+	 * @param found
+	 *            receives the distinct classes, in the order of their first
+	 *            char, at least getClassCount() long
+	 * @param seen
+	 *            scratch space, getClassCount() long and all false, left all
+	 *            false
+	 * @return the number of classes put into found
+	 * */
+	int classesIn(char lo, char hi, int[] found, boolean[] seen) {
+		int n = 0;
+
+		/* Walk the runs of equal classes in the map, not the chars */
+		int r = lo < map.length ? Arrays.binarySearch(runStarts, lo)
+				: runStarts.length;
+		if (r < 0)
+			r = -r - 2;
+		for (; r < runStarts.length && runStarts[r] <= hi; r++) {
+			int c = runClasses[r];
+			if (!seen[c]) {
+				seen[c] = true;
+				found[n++] = c;
+			}
+		}
+		if (hi >= map.length && !seen[tailClass])
+			found[n++] = tailClass;
+
+		for (int i = 0; i < n; i++) {
+			seen[found[i]] = false;
+		}
+		return n;
+	}
+
+	/**
+	 * @return the number of classes
+	 * */
+	public int getClassCount() {
+		return classCount;
+	}
+
+	/**
+	 * @param cls
+	 *            the class
+	 * @return the lowest char of the class
+	 * */
+	public char getRepresentative(int cls) {
+		return representatives[cls];
+	}
+
+	/**
+	 * @param cls
+	 *            the class
+	 * @return true if some label covers the chars of the class
+	 * */
+	public boolean isLabelled(int cls) {
+		return labelled[cls];
+	}
+
+	/* The map and the tail class, for the matching loops */
+	int[] map() {
+		return map;
+	}
+
+	int tailClass() {
+		return tailClass;
+	}
+}
@@ -0,0 +1,79 @@
+package nfa;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The JFR event of one phase of the compilation of a pattern: parsing,
+ * building the NFA, the subset construction or the minimization. The event
+ * duration is the time spent in the phase, and the sizes are those known
+ * at its end, 0 when the phase does not have them yet.
+ *
+ * The events are disabled unless a recording enables nfa.CompilePhase, in
+ * which case they cost one small allocation per phase, for example
+ *
+ * java -XX:StartFlightRecording:settings=profile ...
+ * */
+@Name("nfa.CompilePhase")
+@Label("Regex Compile Phase")
+@Category("Regex Engine")
+@Description("One phase of the compilation of a regular expression")
+final class CompileEvent extends Event {
+
+	static final String PARSE = "parse";
+
+	static final String NFA = "nfa";
+
+	static final String SUBSET_CONSTRUCTION = "subset construction";
+
+	static final String MINIMIZATION = "minimization";
+
+	@Label("Phase")
+	String phase;
+
+	@Label("Pattern")
+	String pattern;
+
+	@Label("NFA States")
+	int nfaStates;
+
+	@Label("DFA States")
+	int dfaStates;
+
+	@Label("Alphabet Size")
+	@Description("The number of char classes")
+	int alphabetSize;
+
+	/**
+	 * Starts timing a phase
+	 *
+	 * @param phase
+	 *            one of the phase names above
+	 * @param pattern
+	 *            the pattern being compiled
+	 * @return the started event
+	 * */
+	static CompileEvent start(String phase, String pattern) {
+		CompileEvent e = new CompileEvent();
+		e.phase = phase;
+		e.pattern = pattern;
+		e.begin();
+		return e;
+	}
+
+	/**
+	 * Ends the phase and commits the event if it is enabled
+	 * */
+	void finish(int nfaStates, int dfaStates, int alphabetSize) {
+		end();
+		if (shouldCommit()) {
+			this.nfaStates = nfaStates;
+			this.dfaStates = dfaStates;
+			this.alphabetSize = alphabetSize;
+			commit();
+		}
+	}
+}
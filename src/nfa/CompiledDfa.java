@@ -0,0 +1,406 @@
+package nfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import nfa.State.Transitions;
+
+/**
+ * An immutable, table driven form of a DFA. The transitions are stored in a
+ * single dense int array indexed by (state * classCount + class), where the
+ * class of an input character comes from its CharClasses, the accepting
+ * states in a bitmap and the start state as an index, so matching costs two
+ * array loads per input character. Instances hold no reference to
+ * the State/Table graph they were built from and can be shared between
+ * threads.
+ *
+ * State 0 is always the dead state: it is not accepting and every class
+ * leads back to it.
+ *
+ * The states are also classified once when the DFA is built, so that
+ * matching can stop or skip ahead: a dead end never reaches an accepting
+ * state, so the input is rejected as soon as it enters one; a sink accepts
+ * and loops on every class, so the input is accepted as soon as it enters
+ * one; and an accelerated state loops on every char but at most
+ * Accelerator.MAX_ESCAPES, so the chars up to the next escape are skipped
+ * with Accelerator.skip instead of being looked up one by one.
+ * */
+public final class CompiledDfa implements DfaMatcher, SearchDfa {
+
+	/* Index of the dead state */
+	public static final int DEAD = 0;
+
+	/* Number of states, including the dead state */
+	private final int stateCount;
+
+	/* The char classes indexing the columns of the table */
+	private final CharClasses classes;
+
+	/* Number of columns in the table */
+	private final int classCount;
+
+	/* The transition table, state * classCount + class -> next state */
+	private final int[] table;
+
+	/* Bitmap of the accepting states */
+	private final long[] accept;
+
+	/* Index of the start state */
+	private final int start;
+
+	/* Number of patterns matched at once, 1 for a single pattern */
+	private final int patternCount;
+
+	/* Number of longs per set of patterns */
+	private final int patternWords;
+
+	/*
+	 * The patterns accepted in each state, state * patternWords + word, null
+	 * for a single pattern
+	 */
+	private final long[] matchSets;
+
+	/* The kind of every state, NORMAL, DEAD_END, SINK or ACCELERATED */
+	private final byte[] kinds;
+
+	/* The chars leaving each accelerated state, null for the others */
+	private final char[][] escapes;
+
+	static final byte NORMAL = 0;
+
+	static final byte DEAD_END = 1;
+
+	static final byte SINK = 2;
+
+	static final byte ACCELERATED = 3;
+
+	CompiledDfa(int stateCount, CharClasses classes, int[] table,
+			long[] accept, int start) {
+		this(stateCount, classes, table, accept, start, 1, null);
+	}
+
+	CompiledDfa(int stateCount, CharClasses classes, int[] table,
+			long[] accept, int start, int patternCount, long[] matchSets) {
+		this.stateCount = stateCount;
+		this.classes = classes;
+		this.classCount = classes.getClassCount();
+		this.table = table;
+		this.accept = accept;
+		this.start = start;
+		this.patternCount = patternCount;
+		this.patternWords = (patternCount + 63) >>> 6;
+		this.matchSets = matchSets;
+		this.kinds = new byte[stateCount];
+		this.escapes = new char[stateCount][];
+		classify();
+	}
+
+	/**
+	 * Compiles the DFA given in the table into its table driven form, the
+	 * columns being the classes distinguished by the transitions of the table.
+	 *
+	 * @param dfaTbl
+	 *            a DFA as returned by Operations.convertNfaToDfa
+	 * @return the compiled DFA
+	 * */
+	public static CompiledDfa fromTable(Table dfaTbl) {
+		return fromTable(dfaTbl, CharClasses.fromTable(dfaTbl));
+	}
+
+	/**
+	 * Compiles the DFA given in the table into its table driven form.
+	 *
+	 * @param dfaTbl
+	 *            a DFA as returned by Operations.convertNfaToDfa
+	 * @param classes
+	 *            classes that the transitions of the table do not split
+	 * @return the compiled DFA
+	 * */
+	public static CompiledDfa fromTable(Table dfaTbl, CharClasses classes) {
+		ArrayList<State> states = dfaTbl.getsList();
+
+		/* Index 0 is reserved for the dead state */
+		IdentityHashMap<State, Integer> index = new IdentityHashMap<State, Integer>();
+		for (State s : states) {
+			index.put(s, index.size() + 1);
+		}
+
+		int classCount = classes.getClassCount();
+		int stateCount = states.size() + 1;
+		int[] table = new int[stateCount * classCount];
+		long[] accept = new long[(stateCount + 63) >>> 6];
+		int[] covered = new int[classCount];
+		boolean[] seen = new boolean[classCount];
+
+		for (State s : states) {
+			int from = index.get(s);
+			if (s.isFinalState()) {
+				accept[from >>> 6] |= 1L << from;
+			}
+			/* The first transition on a char wins, as in State.getNextState */
+			for (int i = s.getDirection().size() - 1; i >= 0; i--) {
+				Transitions t = s.getDirection().get(i);
+				if (t.epsilon)
+					continue;
+				int to = index.get(t.nextState);
+				int k = classes.classesIn(t.ipChar, t.hiChar, covered, seen);
+				for (int j = 0; j < k; j++) {
+					table[from * classCount + covered[j]] = to;
+				}
+			}
+		}
+
+		return new CompiledDfa(stateCount, classes, table, accept,
+				index.get(dfaTbl.getStartState()));
+	}
+
+	/**
+	 * @return the index of the start state
+	 * */
+	public int getStartState() {
+		return start;
+	}
+
+	/**
+	 * @return the number of states, including the dead state
+	 * */
+	public int getStateCount() {
+		return stateCount;
+	}
+
+	/**
+	 * @return the number of states, every state is lower
+	 * */
+	public int getStateBound() {
+		return stateCount;
+	}
+
+	/**
+	 * @return 0, a compiled DFA never forgets its states
+	 * */
+	public long getCacheClears() {
+		return 0;
+	}
+
+	/**
+	 * @return the char classes indexing the columns of the transition table
+	 * */
+	public CharClasses getClasses() {
+		return classes;
+	}
+
+	/**
+	 * Returns the state reached from the given state on the given char
+	 *
+	 * @param state
+	 *            the current state
+	 * @param c
+	 *            the input character
+	 * @return the next state, DEAD if there is no transition
+	 * */
+	public int next(int state, char c) {
+		return table[state * classCount + classes.classOf(c)];
+	}
+
+	/**
+	 * @param state
+	 *            the state to be tested
+	 * @return true if the state is accepting
+	 * */
+	public boolean isAccepting(int state) {
+		return (accept[state >>> 6] & (1L << state)) != 0;
+	}
+
+	/**
+	 * @return the number of patterns the dfa matches at once
+	 * */
+	public int getPatternCount() {
+		return patternCount;
+	}
+
+	/**
+	 * Returns the patterns accepted in the given state. For a single pattern
+	 * that is pattern 0 if the state is accepting.
+	 *
+	 * @param state
+	 *            the state to be tested
+	 * @return the ids of the patterns, in increasing order
+	 * */
+	public int[] matchingPatterns(int state) {
+		if (matchSets == null)
+			return isAccepting(state) ? new int[] { 0 } : new int[0];
+
+		int from = state * patternWords;
+		int count = 0;
+		for (int w = 0; w < patternWords; w++) {
+			count += Long.bitCount(matchSets[from + w]);
+		}
+
+		int[] ids = new int[count];
+		int i = 0;
+		for (int w = 0; w < patternWords; w++) {
+			for (long bits = matchSets[from + w]; bits != 0; bits &= bits - 1) {
+				ids[i++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Checks if the whole of the given input is accepted by the dfa
+	 *
+	 * @param str
+	 *            the string to be tested
+	 * */
+	@Override
+	public boolean matches(CharSequence str) {
+		return isAccepting(run(str));
+	}
+
+	/**
+	 * @param state
+	 *            the state to be tested
+	 * @return NORMAL, DEAD_END, SINK or ACCELERATED
+	 * */
+	byte kind(int state) {
+		return kinds[state];
+	}
+
+	/* The raw transition table, for the passes that rewrite the dfa */
+	int[] table() {
+		return table;
+	}
+
+	/* The raw accept bitmap */
+	long[] accept() {
+		return accept;
+	}
+
+	/* The raw pattern sets, null for a single pattern */
+	long[] matchSets() {
+		return matchSets;
+	}
+
+	int patternWords() {
+		return patternWords;
+	}
+
+	/*
+	 * Runs the dfa over the whole input and returns the state it ends in,
+	 * DEAD as soon as it enters a dead end. A sink is returned as soon as it
+	 * is entered, since the rest of the input cannot leave it.
+	 */
+	int run(CharSequence str) {
+		final int[] table = this.table;
+		final int[] map = classes.map();
+		final int tailClass = classes.tailClass();
+		final int classCount = this.classCount;
+		final byte[] kinds = this.kinds;
+		int state = start;
+		int i = 0;
+		int n = str.length();
+
+		while (true) {
+			switch (kinds[state]) {
+			case DEAD_END:
+				return DEAD;
+			case SINK:
+				return state;
+			case ACCELERATED:
+				i = Accelerator.skip(str, i, n, escapes[state]);
+				break;
+			}
+			if (i == n)
+				return state;
+
+			/* Step until the state changes, then look at the new one */
+			int next;
+			do {
+				char c = str.charAt(i++);
+				int cls = c < map.length ? map[c] : tailClass;
+				next = table[state * classCount + cls];
+			} while (next == state && i < n);
+			state = next;
+		}
+	}
+
+	/*
+	 * Fills kinds and escapes. The dead ends are the states from which no
+	 * accepting state can be reached backward, found by a search over the
+	 * reversed transitions from the accepting states.
+	 */
+	private void classify() {
+		/* The reversed transitions, the sources of t in from[start[t]..] */
+		int[] start = new int[stateCount + 1];
+		for (int t : table) {
+			start[t + 1]++;
+		}
+		for (int s = 0; s < stateCount; s++) {
+			start[s + 1] += start[s];
+		}
+		int[] from = new int[table.length];
+		int[] fill = Arrays.copyOf(start, stateCount);
+		for (int e = 0; e < table.length; e++) {
+			from[fill[table[e]]++] = e / classCount;
+		}
+
+		boolean[] live = new boolean[stateCount];
+		int[] stack = new int[stateCount];
+		int top = 0;
+		for (int s = 0; s < stateCount; s++) {
+			if (isAccepting(s)) {
+				live[s] = true;
+				stack[top++] = s;
+			}
+		}
+		while (top > 0) {
+			int t = stack[--top];
+			for (int e = start[t]; e < start[t + 1]; e++) {
+				if (!live[from[e]]) {
+					live[from[e]] = true;
+					stack[top++] = from[e];
+				}
+			}
+		}
+
+		/* The chars of the classes with at most MAX_ESCAPES of them */
+		final int[] map = classes.map();
+		int[] sizes = new int[classCount];
+		char[][] members = new char[classCount][Accelerator.MAX_ESCAPES];
+		for (int c = 0; c < map.length; c++) {
+			int cls = map[c];
+			if (sizes[cls] < Accelerator.MAX_ESCAPES)
+				members[cls][sizes[cls]] = (char) c;
+			sizes[cls]++;
+		}
+		if (map.length <= Character.MAX_VALUE)
+			sizes[classes.tailClass()] += Character.MAX_VALUE + 1 - map.length;
+
+		char[] leaving = new char[Accelerator.MAX_ESCAPES];
+		for (int s = 0; s < stateCount; s++) {
+			if (!live[s]) {
+				kinds[s] = DEAD_END;
+				continue;
+			}
+
+			int n = 0;
+			for (int cls = 0; cls < classCount; cls++) {
+				if (table[s * classCount + cls] == s)
+					continue;
+				n += sizes[cls];
+				if (n > Accelerator.MAX_ESCAPES)
+					break;
+				System.arraycopy(members[cls], 0, leaving, n - sizes[cls],
+						sizes[cls]);
+			}
+
+			if (n == 0 && isAccepting(s)) {
+				kinds[s] = SINK;
+			} else if (n > 0 && n <= Accelerator.MAX_ESCAPES) {
+				kinds[s] = ACCELERATED;
+				escapes[s] = Arrays.copyOf(leaving, n);
+			}
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package nfa;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent cache from regular expressions to their compiled, minimized
+ * DFAs, holding at most maxEntries of them.
+ *
+ * Reads are lock free: a hit is one lookup in a ConcurrentHashMap plus
+ * setting the referenced flag of the entry, a plain write done only when
+ * the flag is clear, so a hot entry is not written at all. When several
+ * threads miss on the same expression at once, only the first one compiles
+ * it and the others wait for its result. Once the cache is over its bound,
+ * entries are evicted in the manner of the CLOCK algorithm: the entries are
+ * queued in the order they were inserted, and the head of the queue is
+ * evicted unless it was referenced since it was last looked at, in which
+ * case its flag is cleared and it goes back to the tail. That approximates
+ * least recently used at a constant amortized cost per miss.
+ *
+ * Instances can be shared between threads.
+ * */
+public final class DfaCache {
+
+	private final int maxEntries;
+
+	private final ConcurrentHashMap<String, Entry> map;
+
+	/*
+	 * The entries in the order of the clock hand, with the removed ones
+	 * dropped as the hand reaches them
+	 */
+	private final ConcurrentLinkedQueue<Entry> clock;
+
+	/* Held while evicting, so that two misses do not evict twice */
+	private final Object evictLock = new Object();
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates an empty cache
+	 *
+	 * @param maxEntries
+	 *            the most compiled expressions kept, at least 1
+	 * */
+	public DfaCache(int maxEntries) {
+		if (maxEntries < 1)
+			throw new IllegalArgumentException("maxEntries must be at least 1");
+
+		this.maxEntries = maxEntries;
+		this.map = new ConcurrentHashMap<String, Entry>();
+		this.clock = new ConcurrentLinkedQueue<Entry>();
+	}
+
+	/**
+	 * Returns the compiled DFA of the given regular expression, compiling it
+	 * if it is not in the cache yet
+	 *
+	 * @param regex
+	 *            the regular expression in infix form
+	 * @return the compiled DFA, as returned by Operations.compileRegex
+	 * */
+	public CompiledDfa get(String regex) {
+		Entry e = map.get(regex);
+		if (e != null) {
+			hits.increment();
+			EngineMetrics.CACHE_HITS.increment();
+			e.reference();
+			return e.await();
+		}
+
+		Entry created = new Entry(regex);
+		e = map.putIfAbsent(regex, created);
+		if (e != null) {
+			/* Another thread is compiling it, or just did */
+			hits.increment();
+			EngineMetrics.CACHE_HITS.increment();
+			e.reference();
+			return e.await();
+		}
+
+		misses.increment();
+		EngineMetrics.CACHE_MISSES.increment();
+		clock.offer(created);
+		created.task.run();
+		try {
+			return created.await();
+		} catch (RuntimeException ex) {
+			/* Do not keep failures, the next call tries again */
+			map.remove(regex, created);
+			throw ex;
+		} finally {
+			if (map.size() > maxEntries)
+				evict();
+		}
+	}
+
+	/**
+	 * @return the number of compiled expressions in the cache
+	 * */
+	public int size() {
+		return map.size();
+	}
+
+	/**
+	 * Drops every entry, the counters are kept
+	 * */
+	public void clear() {
+		map.clear();
+		clock.clear();
+	}
+
+	/**
+	 * @return the number of lookups that found their expression
+	 * */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of lookups that had to compile their expression
+	 * */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the number of entries evicted to stay within the bound
+	 * */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/*
+	 * Moves the clock hand until the cache is within its bound again, each
+	 * entry it passes losing its referenced flag or being evicted. Entries
+	 * still being compiled are left alone, and the hand gives up after two
+	 * turns, when everything left is being compiled.
+	 */
+	private void evict() {
+		synchronized (evictLock) {
+			int steps = 2 * map.size() + 2;
+			while (map.size() > maxEntries && steps-- > 0) {
+				Entry e = clock.poll();
+				if (e == null)
+					return;
+				if (map.get(e.regex) != e)
+					continue;
+
+				if (!e.task.isDone() || e.referenced) {
+					e.referenced = false;
+					clock.offer(e);
+				} else if (map.remove(e.regex, e)) {
+					evictions.increment();
+				}
+			}
+		}
+	}
+
+	/*
+	 * A cached expression, compiled once by the thread that inserted it
+	 */
+	private static final class Entry {
+
+		final String regex;
+
+		final FutureTask<CompiledDfa> task;
+
+		/*
+		 * True if the entry was looked up since the clock hand last passed
+		 * it. Plain on purpose: a lost or late write only costs the entry its
+		 * second chance.
+		 */
+		boolean referenced;
+
+		Entry(final String regex) {
+			this.regex = regex;
+			task = new FutureTask<CompiledDfa>(new Callable<CompiledDfa>() {
+				@Override
+				public CompiledDfa call() {
+					return Operations.compileRegex(regex);
+				}
+			});
+		}
+
+		void reference() {
+			if (!referenced)
+				referenced = true;
+		}
+
+		/*
+		 * Waits for the compilation, rethrowing what it threw
+		 */
+		CompiledDfa await() {
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						return task.get();
+					} catch (InterruptedException ex) {
+						interrupted = true;
+					} catch (ExecutionException ex) {
+						Throwable cause = ex.getCause();
+						if (cause instanceof RuntimeException)
+							throw (RuntimeException) cause;
+						if (cause instanceof Error)
+							throw (Error) cause;
+						throw new IllegalStateException(cause);
+					}
+				}
+			} finally {
+				if (interrupted)
+					Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
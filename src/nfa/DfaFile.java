@@ -0,0 +1,193 @@
+package nfa;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads and writes compiled DFAs in a compact binary format, so that a
+ * pattern catalog is compiled once and then loaded without going through
+ * the parser, the NFA or any State/Table object. All the values are little
+ * endian ints and longs:
+ *
+ * header - MAGIC, VERSION, flags, stateCount, classCount, start,
+ * patternCount, mapLength, tailClass, intervalCount
+ *
+ * intervals - intervalCount pairs (first char, class) cutting the chars
+ * below mapLength into runs of the same class
+ *
+ * classes - classCount ints, the representative char of each class, with
+ * LABELLED set if some label covers it
+ *
+ * table - stateCount * classCount ints, the transitions
+ *
+ * accept - the accept bitmap, 8 byte aligned, then the pattern sets of the
+ * states if the MATCH_SETS flag is set
+ *
+ * A file can be loaded onto the heap, or mapped into memory with map, in
+ * which case the transitions are read from the page cache and are shared
+ * by every process mapping the same file.
+ * */
+public final class DfaFile {
+
+	/* "NDFA" as the first four bytes of the file */
+	static final int MAGIC = 0x4146444E;
+
+	/* Bumped on any incompatible change of the format */
+	static final int VERSION = 1;
+
+	/* Set if the file holds the pattern sets of a RegexSet dfa */
+	static final int MATCH_SETS = 1;
+
+	/* Set on the classes covered by some label */
+	static final int LABELLED = 1 << 16;
+
+	static final int HEADER_INTS = 10;
+
+	private DfaFile() {
+	}
+
+	/**
+	 * Encodes the given dfa
+	 *
+	 * @param dfa
+	 *            the compiled dfa
+	 * @return a buffer holding the encoded dfa, from position 0 to its limit
+	 * */
+	public static ByteBuffer encode(CompiledDfa dfa) {
+		CharClasses classes = dfa.getClasses();
+		int[] map = classes.map();
+		int k = classes.getClassCount();
+		long[] sets = dfa.matchSets();
+
+		int intervals = 0;
+		for (int c = 0; c < map.length; c++) {
+			if (c == 0 || map[c] != map[c - 1])
+				intervals++;
+		}
+
+		long size = tableOffset(intervals, k) + 4L * dfa.getStateCount() * k;
+		size = align(size) + 8L * dfa.accept().length;
+		if (sets != null)
+			size += 8L * sets.length;
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("dfa too big to encode: "
+					+ size + " bytes");
+
+		ByteBuffer buf = ByteBuffer.allocate((int) size).order(
+				ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(MAGIC).putInt(VERSION).putInt(sets != null ? MATCH_SETS : 0);
+		buf.putInt(dfa.getStateCount()).putInt(k).putInt(dfa.getStartState());
+		buf.putInt(dfa.getPatternCount()).putInt(map.length);
+		buf.putInt(classes.tailClass()).putInt(intervals);
+
+		for (int c = 0; c < map.length; c++) {
+			if (c == 0 || map[c] != map[c - 1])
+				buf.putInt(c).putInt(map[c]);
+		}
+		for (int cls = 0; cls < k; cls++) {
+			buf.putInt(classes.getRepresentative(cls)
+					| (classes.isLabelled(cls) ? LABELLED : 0));
+		}
+
+		buf.asIntBuffer().put(dfa.table());
+		buf.position(align(buf.position() + 4L * dfa.table().length));
+
+		buf.asLongBuffer().put(dfa.accept());
+		buf.position(buf.position() + 8 * dfa.accept().length);
+		if (sets != null)
+			buf.asLongBuffer().put(sets);
+
+		buf.clear();
+		return buf;
+	}
+
+	/**
+	 * Decodes a dfa onto the heap
+	 *
+	 * @param buf
+	 *            the encoded dfa, from its position on
+	 * @return the compiled dfa
+	 * @throws IOException
+	 *             if the buffer does not hold a dfa of a known version
+	 * */
+	public static CompiledDfa decode(ByteBuffer buf) throws IOException {
+		MappedDfa mapped = new MappedDfa(buf);
+		return mapped.toCompiledDfa();
+	}
+
+	/**
+	 * Writes the given dfa to a file, replacing its contents
+	 *
+	 * @param dfa
+	 *            the compiled dfa
+	 * @param file
+	 *            the file to be written
+	 * @throws IOException
+	 *             if writing fails
+	 * */
+	public static void save(CompiledDfa dfa, File file) throws IOException {
+		ByteBuffer buf = encode(dfa);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel ch = raf.getChannel();
+			ch.truncate(0);
+			while (buf.hasRemaining()) {
+				ch.write(buf);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Reads a dfa from a file onto the heap
+	 *
+	 * @param file
+	 *            the file written by save
+	 * @return the compiled dfa
+	 * @throws IOException
+	 *             if reading fails or the file does not hold a dfa
+	 * */
+	public static CompiledDfa load(File file) throws IOException {
+		return map(file).toCompiledDfa();
+	}
+
+	/**
+	 * Maps a dfa file into memory. Only the header and the char classes are
+	 * decoded onto the heap; the transitions stay in the mapping, and are
+	 * read once by the check done when it is opened.
+	 *
+	 * @param file
+	 *            the file written by save
+	 * @return the mapped dfa
+	 * @throws IOException
+	 *             if mapping fails or the file does not hold a dfa
+	 * */
+	public static MappedDfa map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel ch = raf.getChannel();
+			return new MappedDfa(ch.map(FileChannel.MapMode.READ_ONLY, 0,
+					ch.size()));
+		} finally {
+			/* The mapping stays valid once the file is closed */
+			raf.close();
+		}
+	}
+
+	/*
+	 * Offset of the transition table in a file with the given number of
+	 * intervals and classes
+	 */
+	static long tableOffset(int intervals, int classCount) {
+		return 4L * (HEADER_INTS + 2L * intervals + classCount);
+	}
+
+	static int align(long offset) {
+		return (int) ((offset + 7) & ~7L);
+	}
+}
@@ -0,0 +1,16 @@
+package nfa;
+
+/**
+ * Something that tells whether a whole input is accepted: a compiled DFA,
+ * or the class generated for one by BytecodeCompiler.
+ * */
+public interface DfaMatcher {
+
+	/**
+	 * Checks if the whole of the given input is accepted
+	 *
+	 * @param str
+	 *            the string to be tested
+	 * */
+	boolean matches(CharSequence str);
+}
@@ -0,0 +1,284 @@
+package nfa;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Minimizes a compiled DFA with Hopcroft's partition refinement algorithm.
+ * The states are first restricted to the ones reachable from the start
+ * state, then split into blocks of equivalent states in O(n k log n) for n
+ * states and k char classes, and every block becomes one state of the
+ * minimal DFA.
+ * */
+public final class DfaMinimizer {
+
+	private DfaMinimizer() {
+	}
+
+	/**
+	 * Returns the minimal DFA accepting the same language as the given one.
+	 * The dead state stays at index 0 and absorbs every state that is
+	 * equivalent to it.
+	 *
+	 * @param dfa
+	 *            the dfa to be minimized
+	 * @return the minimized dfa
+	 * */
+	public static CompiledDfa minimize(CompiledDfa dfa) {
+		int k = dfa.getClasses().getClassCount();
+		int[] table = dfa.table();
+
+		/* Number the states reachable from the start, the dead state first */
+		int[] index = new int[dfa.getStateCount()];
+		Arrays.fill(index, -1);
+		int[] states = new int[dfa.getStateCount()];
+		int n = 0;
+		index[CompiledDfa.DEAD] = n;
+		states[n++] = CompiledDfa.DEAD;
+		if (index[dfa.getStartState()] == -1) {
+			index[dfa.getStartState()] = n;
+			states[n++] = dfa.getStartState();
+		}
+		for (int i = 0; i < n; i++) {
+			for (int c = 0; c < k; c++) {
+				int t = table[states[i] * k + c];
+				if (index[t] == -1) {
+					index[t] = n;
+					states[n++] = t;
+				}
+			}
+		}
+
+		int[] next = new int[n * k];
+		for (int i = 0; i < n; i++) {
+			for (int c = 0; c < k; c++) {
+				next[i * k + c] = index[table[states[i] * k + c]];
+			}
+		}
+
+		/* Predecessors of state t on class c are pred[predStart[t*k+c]...] */
+		int[] predStart = new int[n * k + 1];
+		for (int e = 0; e < next.length; e++) {
+			predStart[next[e] * k + e % k + 1]++;
+		}
+		for (int i = 0; i < n * k; i++) {
+			predStart[i + 1] += predStart[i];
+		}
+		int[] pred = new int[next.length];
+		int[] fill = Arrays.copyOf(predStart, n * k);
+		for (int e = 0; e < next.length; e++) {
+			pred[fill[next[e] * k + e % k]++] = e / k;
+		}
+
+		Partition p = new Partition(n);
+		long[] matchSets = dfa.matchSets();
+		int pw = dfa.patternWords();
+		if (matchSets == null) {
+			for (int i = 0; i < n; i++) {
+				if (dfa.isAccepting(states[i]))
+					p.mark(i);
+			}
+			p.split();
+		} else {
+			splitByPatterns(p, states, n, matchSets, pw);
+		}
+
+		/* Every block is a splitter to begin with */
+		for (int b = 0; b < p.blockCount; b++) {
+			p.enqueue(b);
+		}
+
+		int[] splitter = new int[n];
+		while (p.workSize > 0) {
+			int b = p.work[--p.workSize];
+			p.queued[b] = false;
+
+			/* Copy the splitter, splitting may reorder its elements */
+			int size = p.end[b] - p.first[b];
+			System.arraycopy(p.elems, p.first[b], splitter, 0, size);
+
+			for (int c = 0; c < k; c++) {
+				for (int i = 0; i < size; i++) {
+					int t = splitter[i] * k + c;
+					for (int e = predStart[t]; e < predStart[t + 1]; e++) {
+						p.mark(pred[e]);
+					}
+				}
+				p.split();
+			}
+		}
+
+		/* The block of the dead state becomes state 0 */
+		int[] blockIndex = new int[p.blockCount];
+		Arrays.fill(blockIndex, -1);
+		int m = 0;
+		blockIndex[p.blockOf[index[CompiledDfa.DEAD]]] = m++;
+		for (int i = 0; i < n; i++) {
+			if (blockIndex[p.blockOf[i]] == -1)
+				blockIndex[p.blockOf[i]] = m++;
+		}
+
+		int[] minTable = new int[m * k];
+		long[] accept = new long[(m + 63) >>> 6];
+		long[] minSets = matchSets == null ? null : new long[m * pw];
+		for (int i = 0; i < n; i++) {
+			int s = blockIndex[p.blockOf[i]];
+			for (int c = 0; c < k; c++) {
+				minTable[s * k + c] = blockIndex[p.blockOf[next[i * k + c]]];
+			}
+			if (dfa.isAccepting(states[i]))
+				accept[s >>> 6] |= 1L << s;
+			if (minSets != null)
+				System.arraycopy(matchSets, states[i] * pw, minSets, s * pw, pw);
+		}
+
+		return new CompiledDfa(m, dfa.getClasses(), minTable, accept,
+				blockIndex[p.blockOf[index[dfa.getStartState()]]],
+				dfa.getPatternCount(), minSets);
+	}
+
+	/*
+	 * Splits the states of a multi pattern dfa into one block per set of
+	 * accepted patterns: the states are sorted by their set and every run of
+	 * equal sets is split off in turn
+	 */
+	private static void splitByPatterns(Partition p, final int[] states,
+			int n, final long[] matchSets, final int pw) {
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		Comparator<Integer> bySet = new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int x = states[a] * pw;
+				int y = states[b] * pw;
+				for (int w = 0; w < pw; w++) {
+					int c = Long.compare(matchSets[x + w], matchSets[y + w]);
+					if (c != 0)
+						return c;
+				}
+				return 0;
+			}
+		};
+		Arrays.sort(order, bySet);
+
+		for (int i = 0; i < n;) {
+			int j = i;
+			while (j < n && bySet.compare(order[i], order[j]) == 0) {
+				p.mark(order[j++]);
+			}
+			p.split();
+			i = j;
+		}
+	}
+
+	/**
+	 * A refinable partition of the states 0..n-1. The elements of each block
+	 * are kept contiguous in elems, and marked elements are moved to the
+	 * front of their block so that a block splits in time proportional to
+	 * its marked part. It also holds the work list of splitter blocks.
+	 * */
+	private static final class Partition {
+
+		final int[] elems;
+
+		/* Position of each state in elems */
+		final int[] loc;
+
+		final int[] blockOf;
+
+		final int[] first;
+
+		final int[] end;
+
+		/* End of the marked prefix of each block */
+		final int[] mid;
+
+		/* Blocks having at least one marked element */
+		final int[] touched;
+
+		int touchedCount = 0;
+
+		int blockCount = 1;
+
+		/* Splitter blocks still to be processed */
+		final int[] work;
+
+		final boolean[] queued;
+
+		int workSize = 0;
+
+		Partition(int n) {
+			elems = new int[n];
+			loc = new int[n];
+			blockOf = new int[n];
+			first = new int[n];
+			end = new int[n];
+			mid = new int[n];
+			touched = new int[n];
+			work = new int[n];
+			queued = new boolean[n];
+			for (int i = 0; i < n; i++) {
+				elems[i] = i;
+				loc[i] = i;
+			}
+			end[0] = n;
+		}
+
+		void mark(int s) {
+			int b = blockOf[s];
+			int i = loc[s];
+			if (i < mid[b])
+				return;
+			if (mid[b] == first[b])
+				touched[touchedCount++] = b;
+
+			int j = mid[b]++;
+			int o = elems[j];
+			elems[j] = s;
+			loc[s] = j;
+			elems[i] = o;
+			loc[o] = i;
+		}
+
+		void enqueue(int b) {
+			if (!queued[b]) {
+				queued[b] = true;
+				work[workSize++] = b;
+			}
+		}
+
+		/*
+		 * Splits every touched block into its marked and unmarked parts. The
+		 * new block goes to the work list if the old one is on it, otherwise
+		 * the smaller of the two parts does.
+		 */
+		void split() {
+			for (int t = 0; t < touchedCount; t++) {
+				int b = touched[t];
+				int m = mid[b];
+				mid[b] = first[b];
+				if (m == end[b])
+					continue;
+
+				/* The marked part first[b]..m becomes the new block */
+				int nb = blockCount++;
+				first[nb] = first[b];
+				end[nb] = m;
+				mid[nb] = first[nb];
+				first[b] = m;
+				mid[b] = m;
+				for (int i = first[nb]; i < end[nb]; i++) {
+					blockOf[elems[i]] = nb;
+				}
+
+				if (queued[b] || end[nb] - first[nb] <= end[b] - first[b])
+					enqueue(nb);
+				else
+					enqueue(b);
+			}
+			touchedCount = 0;
+		}
+	}
+}
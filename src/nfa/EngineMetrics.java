@@ -0,0 +1,155 @@
+package nfa;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * Process wide counters of the engine, cheap enough to be left on: each is
+ * a LongAdder bumped once per call, never once per char, by Regex,
+ * RegexSet and DfaCache. The DFAs used directly are not counted.
+ *
+ * While a JFR recording is on, the counters are also recorded every second
+ * as the nfa.Metrics event, and the compilations as nfa.CompilePhase
+ * events, see CompileEvent.
+ *
+ * Per-state visit histograms are off by default. With a sampling period of
+ * n, one in n Regex.matches calls running on the compiled DFA counts the
+ * states it goes through, see Regex.getStateHistogram.
+ * */
+public final class EngineMetrics {
+
+	static final LongAdder MATCH_CALLS = new LongAdder();
+
+	static final LongAdder CHARS_SCANNED = new LongAdder();
+
+	static final LongAdder CACHE_HITS = new LongAdder();
+
+	static final LongAdder CACHE_MISSES = new LongAdder();
+
+	/* One in samplePeriod matches is histogrammed, none if 0 */
+	private static volatile int samplePeriod;
+
+	static {
+		FlightRecorder.addPeriodicEvent(MetricsEvent.class, new Runnable() {
+			@Override
+			public void run() {
+				MetricsEvent e = new MetricsEvent();
+				e.matchCalls = MATCH_CALLS.sum();
+				e.charsScanned = CHARS_SCANNED.sum();
+				e.cacheHits = CACHE_HITS.sum();
+				e.cacheMisses = CACHE_MISSES.sum();
+				e.commit();
+			}
+		});
+	}
+
+	private EngineMetrics() {
+	}
+
+	/**
+	 * @return the number of matches and finds run
+	 * */
+	public static long getMatchCalls() {
+		return MATCH_CALLS.sum();
+	}
+
+	/**
+	 * @return the number of chars read by the matches and finds, a find
+	 *         counting the chars from its offset to the end of its match or
+	 *         of the input
+	 * */
+	public static long getCharsScanned() {
+		return CHARS_SCANNED.sum();
+	}
+
+	/**
+	 * @return the number of DfaCache lookups that found their expression
+	 * */
+	public static long getCacheHits() {
+		return CACHE_HITS.sum();
+	}
+
+	/**
+	 * @return the number of DfaCache lookups that had to compile
+	 * */
+	public static long getCacheMisses() {
+		return CACHE_MISSES.sum();
+	}
+
+	/**
+	 * Sets the share of the matches that record their state visits
+	 *
+	 * @param period
+	 *            one in period matches is recorded, 0 to record none
+	 * */
+	public static void setStateSampling(int period) {
+		if (period < 0)
+			throw new IllegalArgumentException("negative period: " + period);
+
+		samplePeriod = period;
+	}
+
+	/**
+	 * @return the state sampling period, 0 if sampling is off
+	 * */
+	public static int getStateSampling() {
+		return samplePeriod;
+	}
+
+	/**
+	 * Sets every counter back to 0
+	 * */
+	public static void reset() {
+		MATCH_CALLS.reset();
+		CHARS_SCANNED.reset();
+		CACHE_HITS.reset();
+		CACHE_MISSES.reset();
+	}
+
+	/*
+	 * Counts one match over the given number of chars
+	 */
+	static void countMatch(int chars) {
+		MATCH_CALLS.increment();
+		CHARS_SCANNED.add(chars);
+	}
+
+	/*
+	 * Decides if the current match is sampled. The random draw is per
+	 * thread, so the matches share nothing but the period.
+	 */
+	static boolean sampleStates() {
+		int p = samplePeriod;
+		return p > 0 && (p == 1 || ThreadLocalRandom.current().nextInt(p) == 0);
+	}
+
+	@Name("nfa.Metrics")
+	@Label("Regex Engine Metrics")
+	@Category("Regex Engine")
+	@Description("The counters of the engine since the start or the last reset")
+	@Period("1 s")
+	@StackTrace(false)
+	static final class MetricsEvent extends Event {
+
+		@Label("Match Calls")
+		long matchCalls;
+
+		@Label("Chars Scanned")
+		long charsScanned;
+
+		@Label("Cache Hits")
+		long cacheHits;
+
+		@Label("Cache Misses")
+		long cacheMisses;
+	}
+}
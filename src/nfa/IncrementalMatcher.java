@@ -0,0 +1,230 @@
+package nfa;
+
+import java.util.Arrays;
+
+/**
+ * Matches a document against a compiled DFA again after small edits,
+ * without reading all of it every time. The first match records the DFA
+ * state every interval chars, a checkpoint. After an edit the run resumes
+ * from the last checkpoint before the edit, and every checkpoint after the
+ * edit is shifted by the change of length. Once the run reaches one of
+ * them in the state it had before, the rest of the document is the same
+ * text read from the same state, so the run stops there and the result is
+ * the previous one.
+ *
+ * The cost of an edit is then the chars from the checkpoint before it to
+ * the first checkpoint where the state converges, usually about the length
+ * of the edit plus two intervals, whatever the size of the document. A
+ * document that kills the DFA keeps no checkpoint after the dead state.
+ *
+ * An instance follows one document at a time and is not thread safe.
+ * */
+public final class IncrementalMatcher {
+
+	/* Chars between two checkpoints by default */
+	public static final int DEFAULT_INTERVAL = 4096;
+
+	private final CompiledDfa dfa;
+
+	private final int interval;
+
+	/*
+	 * The checkpoints in increasing order of offset: states[i] is the state
+	 * before the char at offsets[i] is read, offsets[0] is 0
+	 */
+	private int[] offsets = new int[16];
+
+	private int[] states = new int[16];
+
+	private int count;
+
+	/* Length of the document, -1 until the first match */
+	private int length = -1;
+
+	/* The state after the whole document */
+	private int finalState;
+
+	/* Chars read by the last match or edit */
+	private int scanned;
+
+	/**
+	 * Creates a matcher taking a checkpoint every DEFAULT_INTERVAL chars
+	 *
+	 * @param dfa
+	 *            the compiled dfa, anchored as built by convertNfaToDfa
+	 * */
+	public IncrementalMatcher(CompiledDfa dfa) {
+		this(dfa, DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Creates a matcher taking a checkpoint every interval chars
+	 *
+	 * @param dfa
+	 *            the compiled dfa, anchored as built by convertNfaToDfa
+	 * @param interval
+	 *            the chars between two checkpoints, at least 1
+	 * */
+	public IncrementalMatcher(CompiledDfa dfa, int interval) {
+		if (interval < 1)
+			throw new IllegalArgumentException("interval must be at least 1");
+
+		this.dfa = dfa;
+		this.interval = interval;
+	}
+
+	/**
+	 * Matches a whole new document and records its checkpoints
+	 *
+	 * @param doc
+	 *            the document
+	 * @return true if the whole document is accepted
+	 * */
+	public boolean match(CharSequence doc) {
+		count = 0;
+		scanned = 0;
+		length = doc.length();
+		checkpoint(0, dfa.getStartState());
+		run(doc, 0, dfa.getStartState(), null, null, 0, 0, 0);
+
+		EngineMetrics.countMatch(scanned);
+		return isMatch();
+	}
+
+	/**
+	 * Matches the document again after an edit replaced removed chars at
+	 * the given offset with inserted chars
+	 *
+	 * @param doc
+	 *            the document after the edit
+	 * @param offset
+	 *            the offset of the edit
+	 * @param removed
+	 *            the number of chars removed at offset
+	 * @param inserted
+	 *            the number of chars inserted at offset
+	 * @return true if the whole document is accepted
+	 * @throws IllegalStateException
+	 *             if no document was matched yet
+	 * @throws IllegalArgumentException
+	 *             if the edit does not fit the previous document or does not
+	 *             give the length of doc
+	 * */
+	public boolean edit(CharSequence doc, int offset, int removed, int inserted) {
+		if (length < 0)
+			throw new IllegalStateException("no document matched yet");
+		if (offset < 0 || removed < 0 || inserted < 0
+				|| removed > length - offset
+				|| doc.length() != length - removed + inserted)
+			throw new IllegalArgumentException("edit " + offset + ", -"
+					+ removed + ", +" + inserted + " of a document of "
+					+ length + " chars giving " + doc.length());
+
+		int[] oldOffsets = offsets;
+		int[] oldStates = states;
+		int oldCount = count;
+
+		/* The last checkpoint before the edit is still right */
+		int i = Arrays.binarySearch(oldOffsets, 0, oldCount, offset);
+		if (i < 0)
+			i = -i - 2;
+
+		/* The first checkpoint after the removed chars can be converged to */
+		int j = Arrays.binarySearch(oldOffsets, 0, oldCount, offset + removed);
+		if (j < 0)
+			j = -j - 1;
+
+		offsets = Arrays.copyOf(oldOffsets, Math.max(16, 2 * (i + 1)));
+		states = Arrays.copyOf(oldStates, offsets.length);
+		count = i + 1;
+		scanned = 0;
+		length = doc.length();
+		run(doc, oldOffsets[i], oldStates[i], oldOffsets, oldStates, j,
+				oldCount, inserted - removed);
+
+		EngineMetrics.countMatch(scanned);
+		return isMatch();
+	}
+
+	/**
+	 * @return true if the last document matched or edited is accepted
+	 * */
+	public boolean isMatch() {
+		return dfa.isAccepting(finalState);
+	}
+
+	/**
+	 * @return the number of chars read by the last match or edit
+	 * */
+	public int getScanned() {
+		return scanned;
+	}
+
+	/**
+	 * @return the number of checkpoints held for the document
+	 * */
+	public int getCheckpointCount() {
+		return count;
+	}
+
+	/*
+	 * Runs the DFA over doc from offset p in the given state, taking
+	 * checkpoints. The old checkpoints from j on are at old offsets shifted
+	 * by delta; when the run meets one in the same state, they are kept and
+	 * the run stops, else they are replaced.
+	 */
+	private void run(CharSequence doc, int p, int state, int[] oldOffsets,
+			int[] oldStates, int j, int oldCount, int delta) {
+		final CompiledDfa dfa = this.dfa;
+		int n = doc.length();
+		int target = j < oldCount ? oldOffsets[j] + delta : n;
+
+		while (true) {
+			if (p == target && j < oldCount) {
+				if (state == oldStates[j]) {
+					/* Converged: the rest reads as before, from the same state */
+					for (; j < oldCount; j++) {
+						checkpoint(oldOffsets[j] + delta, oldStates[j]);
+					}
+					return;
+				}
+				if (offsets[count - 1] != p)
+					checkpoint(p, state);
+				j++;
+				target = j < oldCount ? oldOffsets[j] + delta : n;
+			} else if (p - offsets[count - 1] >= interval) {
+				checkpoint(p, state);
+			}
+
+			if (state == CompiledDfa.DEAD || p == n)
+				break;
+
+			/* Read up to the next checkpoint, old or new */
+			int stop = Math.min(target, offsets[count - 1] + interval);
+			if (stop > n)
+				stop = n;
+			scanned += stop - p;
+			for (; p < stop; p++) {
+				state = dfa.next(state, doc.charAt(p));
+				if (state == CompiledDfa.DEAD) {
+					scanned -= stop - p - 1;
+					p++;
+					break;
+				}
+			}
+		}
+
+		if (state == CompiledDfa.DEAD && offsets[count - 1] != p)
+			checkpoint(p, state);
+		finalState = state;
+	}
+
+	private void checkpoint(int offset, int state) {
+		if (count == offsets.length) {
+			offsets = Arrays.copyOf(offsets, 2 * count);
+			states = Arrays.copyOf(states, 2 * count);
+		}
+		offsets[count] = offset;
+		states[count++] = state;
+	}
+}
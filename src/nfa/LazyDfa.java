@@ -0,0 +1,350 @@
+package nfa;
+
+import java.util.Arrays;
+
+/**
+ * A DFA whose states are built on demand while matching. Each state is a set
+ * of NFA states, computed from the closures of the NFA the first time the
+ * input reaches it, and then kept in a transition cache of at most maxStates
+ * states. When the cache is full it is cleared and refilled from the
+ * current state, so memory stays bounded even for patterns whose full DFA
+ * would be exponential in size.
+ *
+ * If the cache keeps being cleared while few input chars are consumed per
+ * state built, the rest of the input is matched by simulating the NFA on
+ * the bitsets directly.
+ *
+ * Searcher runs it one char at a time through next instead, either on the
+ * pattern or on its reverse, and anchored or unanchored: an unanchored DFA
+ * adds the start state back into every state it builds, as if the pattern
+ * were preceded by any string. There, a thrashing cache gives the search
+ * up to the Pike VM.
+ *
+ * An instance is not thread safe, every thread needs its own.
+ * */
+public final class LazyDfa implements SearchDfa {
+
+	/* Marks a transition that has not been computed yet */
+	private static final int UNKNOWN = -1;
+
+	/* Returned by step when matching should go on with the NFA simulation */
+	private static final int FALLBACK = GIVE_UP;
+
+	/* Cheap cache clears in a row tolerated before falling back */
+	private static final int MIN_CLEARS = 3;
+
+	/* Fewest input chars per state built for the cache to be worth it */
+	private static final int MIN_CHARS_PER_STATE = 10;
+
+	private final CharClasses classes;
+
+	/* Number of char classes */
+	private final int k;
+
+	/* Number of longs per set of NFA states */
+	private final int words;
+
+	private final long[][] closures;
+
+	/* The class transitions of every NFA state, see Nfa.classTransitions */
+	private final int[] moveStart;
+
+	private final int[] moves;
+
+	/* The accepting NFA states */
+	private final long[] acceptMask;
+
+	/* Closure of the NFA start state */
+	private final long[] startSet;
+
+	/* Whether the start state is added to every state */
+	private final boolean unanchored;
+
+	/* Most states the cache may hold */
+	private final int maxStates;
+
+	/* The cached states, 0 is the dead state and 1 the start state */
+	private final StateSetMap sets;
+
+	/* Cached transitions, state * k + class -> next state or UNKNOWN */
+	private final int[] table;
+
+	private final boolean[] accepting;
+
+	/* Scratch sets for step and the NFA simulation */
+	private final long[] current;
+
+	private final long[] next;
+
+	/*
+	 * Clears in a row that came after too few input chars, and input chars
+	 * consumed since the last clear
+	 */
+	private int matchClears;
+
+	private long charsSinceClear;
+
+	private long cacheClears = 0;
+
+	private long fallbacks = 0;
+
+	/**
+	 * Creates a lazy DFA for the given nfa table
+	 *
+	 * @param nfaTbl
+	 *            the nfa table, as returned by Operations.createNFA
+	 * @param maxStates
+	 *            the most DFA states kept in the cache, at least 4
+	 * */
+	public LazyDfa(Table nfaTbl, int maxStates) {
+		this(Nfa.fromTable(nfaTbl), maxStates);
+	}
+
+	LazyDfa(Nfa nfa, int maxStates) {
+		this(nfa, maxStates, false);
+	}
+
+	LazyDfa(Nfa nfa, int maxStates, boolean unanchored) {
+		if (maxStates < 4)
+			throw new IllegalArgumentException("maxStates must be at least 4");
+
+		this.classes = nfa.charClasses();
+		this.k = classes.getClassCount();
+		this.words = (nfa.stateCount + 63) >>> 6;
+		this.closures = nfa.epsilonClosures();
+		Nfa.ClassMoves transitions = nfa.classTransitions(classes);
+		this.moveStart = transitions.start;
+		this.moves = transitions.moves;
+		this.maxStates = maxStates;
+
+		acceptMask = new long[words];
+		for (int s = 0; s < nfa.stateCount; s++) {
+			if (nfa.accepting[s])
+				acceptMask[s >>> 6] |= 1L << s;
+		}
+		startSet = closures[nfa.start];
+		this.unanchored = unanchored;
+
+		sets = new StateSetMap(words);
+		table = new int[maxStates * k];
+		accepting = new boolean[maxStates];
+		current = new long[words];
+		next = new long[words];
+
+		reset();
+	}
+
+	/**
+	 * Checks if the whole of the given input is accepted
+	 *
+	 * @param str
+	 *            the string to be tested
+	 * */
+	public boolean matches(CharSequence str) {
+		matchClears = 0;
+		charsSinceClear = 0;
+
+		int state = 1;
+		for (int i = 0, n = str.length(); i < n; i++) {
+			int cls = classes.classOf(str.charAt(i));
+			int nextState = table[state * k + cls];
+
+			if (nextState == UNKNOWN) {
+				nextState = step(state, cls);
+				if (nextState == FALLBACK) {
+					fallbacks++;
+					sets.get(state, current);
+					return simulate(str, i);
+				}
+			}
+
+			if (nextState == CompiledDfa.DEAD)
+				return false;
+			state = nextState;
+			charsSinceClear++;
+		}
+
+		return accepting[state];
+	}
+
+	/**
+	 * @return the start state
+	 * */
+	public int getStartState() {
+		return 1;
+	}
+
+	/**
+	 * Returns the state reached from the given state on the given char,
+	 * building it if it is not cached. That may clear the cache, after which
+	 * only the returned state is valid.
+	 *
+	 * @param state
+	 *            the current state
+	 * @param c
+	 *            the input character
+	 * @return the next state, CompiledDfa.DEAD if there is no transition, or
+	 *         GIVE_UP if the cache thrashes
+	 * */
+	public int next(int state, char c) {
+		int cls = classes.classOf(c);
+		int nextState = table[state * k + cls];
+
+		if (nextState == UNKNOWN) {
+			nextState = step(state, cls);
+			if (nextState == FALLBACK) {
+				fallbacks++;
+				return GIVE_UP;
+			}
+		}
+
+		charsSinceClear++;
+		return nextState;
+	}
+
+	/**
+	 * @param state
+	 *            the state to be tested
+	 * @return true if the state is accepting
+	 * */
+	public boolean isAccepting(int state) {
+		return accepting[state];
+	}
+
+	/**
+	 * @return the most states the cache may hold, every state is lower
+	 * */
+	public int getStateBound() {
+		return maxStates;
+	}
+
+	/**
+	 * @return the number of times the cache has been cleared
+	 * */
+	public long getCacheClears() {
+		return cacheClears;
+	}
+
+	/**
+	 * @return the number of matches finished by the NFA simulation, and of
+	 *         searches given up
+	 * */
+	public long getFallbacks() {
+		return fallbacks;
+	}
+
+	/**
+	 * @return the number of states in the cache
+	 * */
+	public int getCachedStates() {
+		return sets.size();
+	}
+
+	/*
+	 * Computes and caches the transition of the given state on the given
+	 * class, clearing the cache first if the target is a new state and there
+	 * is no room left for it
+	 */
+	private int step(int state, int cls) {
+		sets.get(state, current);
+		move(current, cls, next);
+		if (unanchored) {
+			for (int w = 0; w < words; w++) {
+				next[w] |= startSet[w];
+			}
+		}
+
+		int id = sets.find(next);
+		if (id == -1) {
+			if (sets.size() == maxStates) {
+				if (charsSinceClear >= (long) MIN_CHARS_PER_STATE * maxStates)
+					matchClears = 0;
+				else if (++matchClears >= MIN_CLEARS)
+					return FALLBACK;
+
+				reset();
+				cacheClears++;
+				charsSinceClear = 0;
+				state = sets.intern(current);
+				accepting[state] = intersects(current, acceptMask);
+			}
+
+			id = sets.intern(next);
+			accepting[id] = intersects(next, acceptMask);
+		}
+
+		table[state * k + cls] = id;
+		return id;
+	}
+
+	/*
+	 * Empties the cache down to the dead state and the start state
+	 */
+	private void reset() {
+		sets.clear();
+		Arrays.fill(table, UNKNOWN);
+		Arrays.fill(accepting, false);
+
+		long[] empty = new long[words];
+		sets.intern(empty);
+		Arrays.fill(table, 0, k, CompiledDfa.DEAD);
+		sets.intern(startSet);
+		accepting[1] = intersects(startSet, acceptMask);
+	}
+
+	/*
+	 * Matches the rest of the input from the set of NFA states in current
+	 */
+	private boolean simulate(CharSequence str, int from) {
+		long[] set = current;
+		long[] other = next;
+
+		for (int i = from, n = str.length(); i < n; i++) {
+			if (!move(set, classes.classOf(str.charAt(i)), other))
+				return false;
+
+			long[] t = set;
+			set = other;
+			other = t;
+		}
+
+		return intersects(set, acceptMask);
+	}
+
+	/*
+	 * Puts into to the closures of the states reached from the given set on
+	 * the given class, returns false if that is the empty set
+	 */
+	private boolean move(long[] from, int cls, long[] to) {
+		Arrays.fill(to, 0);
+		boolean any = false;
+
+		for (int w = 0; w < words; w++) {
+			for (long bits = from[w]; bits != 0; bits &= bits - 1) {
+				int s = (w << 6) + Long.numberOfTrailingZeros(bits);
+				for (int e = moveStart[s]; e < moveStart[s + 1]; e += 2) {
+					int t = moves[e + 1];
+					if (moves[e] != cls
+							|| (to[t >>> 6] & (1L << t)) != 0)
+						continue;
+
+					long[] closure = closures[t];
+					for (int x = 0; x < words; x++) {
+						to[x] |= closure[x];
+					}
+					any = true;
+				}
+			}
+		}
+
+		return any;
+	}
+
+	private static boolean intersects(long[] a, long[] b) {
+		for (int w = 0; w < a.length; w++) {
+			if ((a[w] & b[w]) != 0)
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,227 @@
+package nfa;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * A compiled DFA read in place from a buffer in the DfaFile format,
+ * usually a mapped file. Only the header and the char classes are decoded
+ * onto the heap when it is opened; the transitions and the accept bitmap
+ * are read from the buffer while matching, so the tables of a mapped file
+ * live in the page cache and not on the heap.
+ *
+ * The header, the char classes and every transition are checked when it is
+ * opened, so that a corrupt file fails there with an IOException and not
+ * later with an index out of bounds while matching. Opening thus reads the
+ * whole transition table once, in one sequential pass.
+ *
+ * Instances are immutable and can be shared between threads.
+ * */
+public final class MappedDfa implements DfaMatcher {
+
+	private final int stateCount;
+
+	private final int classCount;
+
+	private final int start;
+
+	private final int patternCount;
+
+	private final CharClasses classes;
+
+	private final IntBuffer table;
+
+	private final LongBuffer accept;
+
+	/* The pattern sets, null if the file has none */
+	private final LongBuffer matchSets;
+
+	/**
+	 * Opens the dfa encoded in the given buffer
+	 *
+	 * @param buf
+	 *            the encoded dfa, from its position on
+	 * @throws IOException
+	 *             if the buffer does not hold a valid dfa of a known version
+	 * */
+	public MappedDfa(ByteBuffer buf) throws IOException {
+		ByteBuffer b = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+		if (b.remaining() < 4 * DfaFile.HEADER_INTS
+				|| b.getInt(0) != DfaFile.MAGIC)
+			throw new IOException("not a compiled dfa");
+		if (b.getInt(4) != DfaFile.VERSION)
+			throw new IOException("unsupported dfa version " + b.getInt(4));
+
+		int flags = b.getInt(8);
+		stateCount = b.getInt(12);
+		classCount = b.getInt(16);
+		start = b.getInt(20);
+		patternCount = b.getInt(24);
+		int mapLength = b.getInt(28);
+		int tailClass = b.getInt(32);
+		int intervals = b.getInt(36);
+
+		long tableAt = DfaFile.tableOffset(intervals, classCount);
+		long tableEnd = tableAt + 4L * stateCount * classCount;
+		if (stateCount < 1 || classCount < 1 || intervals < 0
+				|| tableEnd > b.limit())
+			throw new IOException("truncated dfa");
+		long acceptAt = DfaFile.align(tableEnd);
+		long acceptWords = (stateCount + 63) >>> 6;
+		long setWords = (flags & DfaFile.MATCH_SETS) != 0 ? (long) stateCount
+				* ((patternCount + 63) >>> 6) : 0;
+		if (acceptAt + 8 * (acceptWords + setWords) > b.limit())
+			throw new IOException("truncated dfa");
+		if (start < 0 || start >= stateCount)
+			throw new IOException("corrupt dfa: start state " + start);
+		if (patternCount < 1)
+			throw new IOException("corrupt dfa: " + patternCount
+					+ " patterns");
+		if (mapLength < 0 || mapLength > Character.MAX_VALUE + 1)
+			throw new IOException("corrupt dfa: class map of " + mapLength
+					+ " chars");
+		if (tailClass < 0 || tailClass >= classCount)
+			throw new IOException("corrupt dfa: tail class " + tailClass);
+		if (intervals == 0 ? mapLength != 0 : intervals > mapLength)
+			throw new IOException("corrupt dfa: " + intervals
+					+ " intervals for a class map of " + mapLength + " chars");
+
+		/* The intervals start at 0 and go up, each with its class */
+		int[] map = new int[mapLength];
+		for (int i = 0; i < intervals; i++) {
+			int from = b.getInt(4 * (DfaFile.HEADER_INTS + 2 * i));
+			int to = i + 1 < intervals ? b.getInt(4 * (DfaFile.HEADER_INTS
+					+ 2 * i + 2)) : mapLength;
+			int cls = b.getInt(4 * (DfaFile.HEADER_INTS + 2 * i + 1));
+			if ((i == 0 ? from != 0 : from < 0) || from >= to
+					|| to > mapLength)
+				throw new IOException("corrupt dfa: interval " + i
+						+ " from " + from + " to " + to);
+			if (cls < 0 || cls >= classCount)
+				throw new IOException("corrupt dfa: class " + cls
+						+ " of interval " + i);
+			Arrays.fill(map, from, to, cls);
+		}
+
+		char[] representatives = new char[classCount];
+		boolean[] labelled = new boolean[classCount];
+		int classesAt = 4 * (DfaFile.HEADER_INTS + 2 * intervals);
+		for (int cls = 0; cls < classCount; cls++) {
+			int v = b.getInt(classesAt + 4 * cls);
+			representatives[cls] = (char) v;
+			labelled[cls] = (v & DfaFile.LABELLED) != 0;
+		}
+		classes = new CharClasses(map, tailClass, classCount,
+				representatives, labelled);
+
+		table = region(b, tableAt, 4L * stateCount * classCount).asIntBuffer();
+		for (int i = 0, n = table.limit(); i < n; i++) {
+			int to = table.get(i);
+			if (to < 0 || to >= stateCount)
+				throw new IOException("corrupt dfa: transition to state "
+						+ to + " from state " + i / classCount);
+		}
+		accept = region(b, acceptAt, 8 * acceptWords).asLongBuffer();
+		matchSets = setWords == 0 ? null : region(b,
+				acceptAt + 8 * acceptWords, 8 * setWords).asLongBuffer();
+	}
+
+	/**
+	 * @return the index of the start state
+	 * */
+	public int getStartState() {
+		return start;
+	}
+
+	/**
+	 * @return the number of states, including the dead state
+	 * */
+	public int getStateCount() {
+		return stateCount;
+	}
+
+	/**
+	 * @return the char classes indexing the columns of the transition table
+	 * */
+	public CharClasses getClasses() {
+		return classes;
+	}
+
+	/**
+	 * Returns the state reached from the given state on the given char
+	 *
+	 * @param state
+	 *            the current state
+	 * @param c
+	 *            the input character
+	 * @return the next state, DEAD if there is no transition
+	 * */
+	public int next(int state, char c) {
+		return table.get(state * classCount + classes.classOf(c));
+	}
+
+	/**
+	 * @param state
+	 *            the state to be tested
+	 * @return true if the state is accepting
+	 * */
+	public boolean isAccepting(int state) {
+		return (accept.get(state >>> 6) & (1L << state)) != 0;
+	}
+
+	/**
+	 * Checks if the whole of the given input is accepted by the dfa
+	 *
+	 * @param str
+	 *            the string to be tested
+	 * */
+	@Override
+	public boolean matches(CharSequence str) {
+		final IntBuffer table = this.table;
+		final int[] map = classes.map();
+		final int tailClass = classes.tailClass();
+		final int classCount = this.classCount;
+		int state = start;
+
+		for (int i = 0, n = str.length(); i < n; i++) {
+			char c = str.charAt(i);
+			int cls = c < map.length ? map[c] : tailClass;
+			state = table.get(state * classCount + cls);
+			if (state == CompiledDfa.DEAD)
+				return false;
+		}
+
+		return isAccepting(state);
+	}
+
+	/**
+	 * Copies the dfa onto the heap, for the matchers that need a
+	 * CompiledDfa
+	 *
+	 * @return the compiled dfa
+	 * */
+	public CompiledDfa toCompiledDfa() {
+		int[] t = new int[table.capacity()];
+		table.duplicate().get(t);
+		long[] a = new long[accept.capacity()];
+		accept.duplicate().get(a);
+		long[] sets = null;
+		if (matchSets != null) {
+			sets = new long[matchSets.capacity()];
+			matchSets.duplicate().get(sets);
+		}
+		return new CompiledDfa(stateCount, classes, t, a, start,
+				patternCount, sets);
+	}
+
+	private static ByteBuffer region(ByteBuffer b, long at, long length) {
+		ByteBuffer d = b.duplicate();
+		d.position((int) at);
+		d.limit((int) (at + length));
+		return d.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
@@ -0,0 +1,58 @@
+package nfa;
+
+/**
+ * The position of a match in an input: the chars from start (inclusive) to
+ * end (exclusive).
+ * */
+public final class Match {
+
+	private final int start;
+
+	private final int end;
+
+	public Match(int start, int end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * @return the offset of the first char of the match
+	 * */
+	public int start() {
+		return start;
+	}
+
+	/**
+	 * @return the offset after the last char of the match
+	 * */
+	public int end() {
+		return end;
+	}
+
+	/**
+	 * @param input
+	 *            the input the match was found in
+	 * @return the matched chars
+	 * */
+	public CharSequence group(CharSequence input) {
+		return input.subSequence(start, end);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Match))
+			return false;
+		Match m = (Match) o;
+		return start == m.start && end == m.end;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * start + end;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + start + ", " + end + ")";
+	}
+}
@@ -0,0 +1,446 @@
+package nfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import nfa.State.Transitions;
+
+/**
+ * A NFA in compressed rows of plain arrays. The states are numbered
+ * 0..n-1, and the edges of state s are at [start[s], start[s + 1]) of the
+ * edge arrays: one row array and one target array for the epsilon edges,
+ * and lo, hi and target arrays for the labelled ones. A NFA of any size is
+ * then a handful of objects, and the engines walk it with ints and bitsets
+ * and without pointer chasing.
+ *
+ * The NFAs are built by ThompsonConstruction or GlushkovConstruction
+ * through a Builder, or indexed from a State/Table NFA by fromTable.
+ * */
+public final class Nfa {
+
+	/* Number of states */
+	final int stateCount;
+
+	/* Index of the start state */
+	final int start;
+
+	/* True for the accepting states */
+	final boolean[] accepting;
+
+	/*
+	 * The pattern each accepting state belongs to when several patterns are
+	 * unioned, null for a single pattern
+	 */
+	final int[] patterns;
+
+	/* Number of patterns unioned, 1 for a single pattern */
+	final int patternCount;
+
+	/* The epsilon successors of state s are epsilonTargets[epsilonStart[s]..] */
+	final int[] epsilonStart;
+
+	final int[] epsilonTargets;
+
+	/* The transition e of a state on the chars labelLo[e]..labelHi[e] */
+	final int[] labelStart;
+
+	final char[] labelLo;
+
+	final char[] labelHi;
+
+	final int[] labelTargets;
+
+	private Nfa(int stateCount, int start, boolean[] accepting,
+			int[] patterns, int patternCount, int[] epsilonStart,
+			int[] epsilonTargets, int[] labelStart, char[] labelLo,
+			char[] labelHi, int[] labelTargets) {
+		this.stateCount = stateCount;
+		this.start = start;
+		this.accepting = accepting;
+		this.patterns = patterns;
+		this.patternCount = patternCount;
+		this.epsilonStart = epsilonStart;
+		this.epsilonTargets = epsilonTargets;
+		this.labelStart = labelStart;
+		this.labelLo = labelLo;
+		this.labelHi = labelHi;
+		this.labelTargets = labelTargets;
+	}
+
+	/**
+	 * Indexes the states of the given nfa table
+	 *
+	 * @param nfaTbl
+	 *            the nfa table, as returned by Operations.createNFA
+	 * @return the indexed nfa
+	 * */
+	public static Nfa fromTable(Table nfaTbl) {
+		ArrayList<State> states = nfaTbl.getsList();
+
+		IdentityHashMap<State, Integer> index = new IdentityHashMap<State, Integer>();
+		Builder b = new Builder();
+		for (State s : states) {
+			index.put(s, b.addState());
+		}
+
+		for (State s : states) {
+			int from = index.get(s);
+			if (s.isFinalState())
+				b.setAccepting(from);
+			for (Transitions t : s.getDirection()) {
+				int to = index.get(t.nextState);
+				if (t.epsilon)
+					b.addEpsilon(from, to);
+				else
+					b.addRange(from, t.ipChar, t.hiChar, to);
+			}
+		}
+
+		return b.build(index.get(nfaTbl.getStartState()));
+	}
+
+	/**
+	 * Unions the given nfas under a new start state with an epsilon edge to
+	 * each of their start states. The accepting states of parts[i] are tagged
+	 * with pattern i.
+	 *
+	 * @param parts
+	 *            the nfas of single patterns
+	 * @return the union
+	 * */
+	static Nfa union(Nfa[] parts) {
+		int n = 1, eps = parts.length, labels = 0;
+		for (Nfa part : parts) {
+			n += part.stateCount;
+			eps += part.epsilonTargets.length;
+			labels += part.labelTargets.length;
+		}
+
+		boolean[] accepting = new boolean[n];
+		int[] patterns = new int[n];
+		int[] epsilonStart = new int[n + 1];
+		int[] epsilonTargets = new int[eps];
+		int[] labelStart = new int[n + 1];
+		char[] labelLo = new char[labels];
+		char[] labelHi = new char[labels];
+		int[] labelTargets = new int[labels];
+
+		/* State 0 is the new start state */
+		patterns[0] = -1;
+		epsilonStart[1] = parts.length;
+
+		int offset = 1;
+		eps = parts.length;
+		labels = 0;
+		for (int p = 0; p < parts.length; p++) {
+			Nfa part = parts[p];
+			epsilonTargets[p] = offset + part.start;
+
+			for (int s = 0; s < part.stateCount; s++) {
+				accepting[offset + s] = part.accepting[s];
+				patterns[offset + s] = part.accepting[s] ? p : -1;
+				epsilonStart[offset + s + 1] = eps + part.epsilonStart[s + 1];
+				labelStart[offset + s + 1] = labels + part.labelStart[s + 1];
+			}
+			for (int e = 0; e < part.epsilonTargets.length; e++) {
+				epsilonTargets[eps + e] = offset + part.epsilonTargets[e];
+			}
+			for (int e = 0; e < part.labelTargets.length; e++) {
+				labelTargets[labels + e] = offset + part.labelTargets[e];
+			}
+			System.arraycopy(part.labelLo, 0, labelLo, labels,
+					part.labelLo.length);
+			System.arraycopy(part.labelHi, 0, labelHi, labels,
+					part.labelHi.length);
+
+			offset += part.stateCount;
+			eps += part.epsilonTargets.length;
+			labels += part.labelTargets.length;
+		}
+
+		return new Nfa(n, 0, accepting, patterns, parts.length, epsilonStart,
+				epsilonTargets, labelStart, labelLo, labelHi, labelTargets);
+	}
+
+	/**
+	 * Reverses the nfa: every edge is turned around, a new start state has
+	 * an epsilon edge to each accepting state, and the old start state is
+	 * the only accepting one. The reversed nfa accepts the reverses of the
+	 * strings this one accepts.
+	 *
+	 * @return the reversed nfa, for a single pattern
+	 * */
+	Nfa reverse() {
+		Builder b = new Builder();
+		for (int s = 0; s <= stateCount; s++) {
+			b.addState();
+		}
+		b.setAccepting(start);
+
+		for (int s = 0; s < stateCount; s++) {
+			if (accepting[s])
+				b.addEpsilon(stateCount, s);
+			for (int e = epsilonStart[s]; e < epsilonStart[s + 1]; e++) {
+				b.addEpsilon(epsilonTargets[e], s);
+			}
+			for (int e = labelStart[s]; e < labelStart[s + 1]; e++) {
+				b.addRange(labelTargets[e], labelLo[e], labelHi[e], s);
+			}
+		}
+
+		return b.build(stateCount);
+	}
+
+	/**
+	 * @return the number of states
+	 * */
+	public int getStateCount() {
+		return stateCount;
+	}
+
+	/**
+	 * @return the classes distinguished by the labels of the transitions
+	 * */
+	public CharClasses charClasses() {
+		return CharClasses.of(labelLo, labelHi, labelLo.length);
+	}
+
+	/**
+	 * Returns the transitions of every state on char classes: a label
+	 * covering several classes gives one transition per class
+	 *
+	 * @param classes
+	 *            classes that the labels do not split
+	 * @return the transitions in compressed rows
+	 * */
+	ClassMoves classTransitions(CharClasses classes) {
+		int[] start = new int[stateCount + 1];
+		int[] moves = new int[2 * labelLo.length];
+		int[] covered = new int[classes.getClassCount()];
+		boolean[] seen = new boolean[covered.length];
+		int n = 0;
+		for (int s = 0; s < stateCount; s++) {
+			for (int e = labelStart[s]; e < labelStart[s + 1]; e++) {
+				int k = classes.classesIn(labelLo[e], labelHi[e], covered,
+						seen);
+				if (n + 2 * k > moves.length)
+					moves = Arrays.copyOf(moves, n + 2 * k + moves.length);
+				for (int i = 0; i < k; i++) {
+					moves[n++] = covered[i];
+					moves[n++] = labelTargets[e];
+				}
+			}
+			start[s + 1] = n;
+		}
+		return new ClassMoves(start, Arrays.copyOf(moves, n));
+	}
+
+	/*
+	 * The transitions of the states on char classes, as returned by
+	 * classTransitions: the moves of state s are at [start[s], start[s + 1])
+	 * of moves, the class at even indexes and the target after it
+	 */
+	static final class ClassMoves {
+
+		final int[] start;
+
+		final int[] moves;
+
+		ClassMoves(int[] start, int[] moves) {
+			this.start = start;
+			this.moves = moves;
+		}
+	}
+
+	/**
+	 * Computes the epsilon closure of every state as a bitset of
+	 * (stateCount + 63) / 64 words. The strongly connected components of the
+	 * epsilon edges are found with Tarjan's algorithm, which completes them
+	 * successors first, so each component's closure is its members plus the
+	 * closures of the components it points to. The states of one component
+	 * share the same array.
+	 *
+	 * @return the closures, indexed by state
+	 * */
+	long[][] epsilonClosures() {
+		int words = (stateCount + 63) >>> 6;
+		long[][] closures = new long[stateCount][];
+
+		int[] order = new int[stateCount];
+		int[] low = new int[stateCount];
+		int[] edge = Arrays.copyOf(epsilonStart, stateCount);
+		boolean[] onStack = new boolean[stateCount];
+		int[] stack = new int[stateCount];
+		int[] calls = new int[stateCount];
+		int counter = 0;
+		int top = 0;
+		Arrays.fill(order, -1);
+
+		for (int root = 0; root < stateCount; root++) {
+			if (order[root] != -1)
+				continue;
+
+			int depth = 0;
+			calls[depth++] = root;
+			order[root] = low[root] = counter++;
+			stack[top++] = root;
+			onStack[root] = true;
+
+			while (depth > 0) {
+				int v = calls[depth - 1];
+
+				if (edge[v] < epsilonStart[v + 1]) {
+					int w = epsilonTargets[edge[v]++];
+					if (order[w] == -1) {
+						order[w] = low[w] = counter++;
+						stack[top++] = w;
+						onStack[w] = true;
+						calls[depth++] = w;
+					} else if (onStack[w]) {
+						low[v] = Math.min(low[v], order[w]);
+					}
+					continue;
+				}
+
+				depth--;
+				if (depth > 0) {
+					int u = calls[depth - 1];
+					low[u] = Math.min(low[u], low[v]);
+				}
+				if (low[v] != order[v])
+					continue;
+
+				/* v is the root of a component, the members are above it */
+				long[] closure = new long[words];
+				int first = top;
+				do {
+					int m = stack[--first];
+					onStack[m] = false;
+					closure[m >>> 6] |= 1L << m;
+				} while (stack[first] != v);
+
+				for (int i = first; i < top; i++) {
+					int u = stack[i];
+					for (int e = epsilonStart[u]; e < epsilonStart[u + 1]; e++) {
+						long[] other = closures[epsilonTargets[e]];
+						if (other == null)
+							continue;
+						for (int x = 0; x < words; x++) {
+							closure[x] |= other[x];
+						}
+					}
+				}
+				for (int i = first; i < top; i++) {
+					closures[stack[i]] = closure;
+				}
+				top = first;
+			}
+		}
+
+		return closures;
+	}
+
+	/**
+	 * Collects the states and edges of a nfa in any order, then sorts the
+	 * edges into rows
+	 * */
+	static final class Builder {
+
+		private int stateCount;
+
+		private boolean[] accepting = new boolean[16];
+
+		/* The epsilon edges, from epsilons[2i] to epsilons[2i + 1] */
+		private int[] epsilons = new int[32];
+
+		private int epsilonCount;
+
+		/* The labelled edges, from labels[2i] to labels[2i + 1] */
+		private int[] labels = new int[32];
+
+		private char[] ranges = new char[32];
+
+		private int labelCount;
+
+		/**
+		 * @return the index of the new state
+		 * */
+		int addState() {
+			if (stateCount == accepting.length)
+				accepting = Arrays.copyOf(accepting, 2 * stateCount);
+			return stateCount++;
+		}
+
+		void setAccepting(int s) {
+			accepting[s] = true;
+		}
+
+		void addEpsilon(int from, int to) {
+			if (2 * epsilonCount == epsilons.length)
+				epsilons = Arrays.copyOf(epsilons, 2 * epsilons.length);
+			epsilons[2 * epsilonCount] = from;
+			epsilons[2 * epsilonCount + 1] = to;
+			epsilonCount++;
+		}
+
+		void addRange(int from, char lo, char hi, int to) {
+			if (2 * labelCount == labels.length) {
+				labels = Arrays.copyOf(labels, 2 * labels.length);
+				ranges = Arrays.copyOf(ranges, 2 * ranges.length);
+			}
+			labels[2 * labelCount] = from;
+			labels[2 * labelCount + 1] = to;
+			ranges[2 * labelCount] = lo;
+			ranges[2 * labelCount + 1] = hi;
+			labelCount++;
+		}
+
+		/**
+		 * Builds the nfa. The edges of every state keep the order they were
+		 * added in.
+		 *
+		 * @param start
+		 *            the start state
+		 * @return the nfa
+		 * */
+		Nfa build(int start) {
+			int[] epsilonStart = rows(epsilons, epsilonCount);
+			int[] epsilonTargets = new int[epsilonCount];
+			int[] fill = Arrays.copyOf(epsilonStart, stateCount);
+			for (int e = 0; e < epsilonCount; e++) {
+				epsilonTargets[fill[epsilons[2 * e]]++] = epsilons[2 * e + 1];
+			}
+
+			int[] labelStart = rows(labels, labelCount);
+			char[] labelLo = new char[labelCount];
+			char[] labelHi = new char[labelCount];
+			int[] labelTargets = new int[labelCount];
+			fill = Arrays.copyOf(labelStart, stateCount);
+			for (int e = 0; e < labelCount; e++) {
+				int at = fill[labels[2 * e]]++;
+				labelLo[at] = ranges[2 * e];
+				labelHi[at] = ranges[2 * e + 1];
+				labelTargets[at] = labels[2 * e + 1];
+			}
+
+			return new Nfa(stateCount, start, Arrays.copyOf(accepting,
+					stateCount), null, 1, epsilonStart, epsilonTargets,
+					labelStart, labelLo, labelHi, labelTargets);
+		}
+
+		/*
+		 * Counts the edges of every state into row starts
+		 */
+		private int[] rows(int[] edges, int count) {
+			int[] start = new int[stateCount + 1];
+			for (int e = 0; e < count; e++) {
+				start[edges[2 * e] + 1]++;
+			}
+			for (int s = 0; s < stateCount; s++) {
+				start[s + 1] += start[s];
+			}
+			return start;
+		}
+	}
+}
@@ -7,8 +7,6 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Scanner;
 import java.util.Stack;
@@ -68,7 +66,37 @@ public class Operations {
 
 		operandStack.push(nfaTable);
 
-		ipSet.add(ip);
+		if (!ipSet.contains(ip))
+			ipSet.add(ip);
+	}
+
+	/**
+	 * PUSH a NFA matching any one char of the given ranges on the stack: two
+	 * states with one range transition per range, whatever the size of the
+	 * ranges.
+	 * 
+	 * @param ranges
+	 *            the ranges, range i being ranges[2i]..ranges[2i+1]
+	 * */
+	private void pushRanges(char[] ranges) {
+		State s0 = new State(++StateID);
+		State s1 = new State(++StateID);
+
+		for (int i = 0; i < ranges.length; i += 2) {
+			s0.addTransition(ranges[i], ranges[i + 1], s1);
+
+			if (!ipSet.contains(ranges[i]))
+				ipSet.add(ranges[i]);
+		}
+
+		Table nfaTable = new Table();
+
+		nfaTable.push(s0);
+		nfaTable.push(s1);
+		nfaTable.setStartState(s0);
+		nfaTable.setLastState(s1);
+
+		operandStack.push(nfaTable);
 	}
 
 	/**
@@ -140,6 +168,82 @@ public class Operations {
 		return true;
 	}
 
+	/**
+	 * Performs the ? operation on the first object on the operand stack: the
+	 * star without the loop back
+	 * 
+	 * @return true if it is able to apply it,false otherwise
+	 */
+	private boolean optional() {
+		Table A;
+
+		A = operandStack.pop();
+
+		if (A == null)
+			return false;
+
+		State startState = new State(++StateID);
+		State endState = new State(++StateID);
+
+		startState.addTransition('0', endState);
+
+		startState.addTransition('0', A.getStartState());
+
+		A.getLastState().addTransition('0', endState);
+
+		A.push(endState);
+
+		A.getsList().add(0, startState);
+
+		A.setStartState(startState);
+
+		if (A.getLastState() != null)
+			A.getLastState().setFinalState(false);
+		A.setLastState(endState);
+
+		operandStack.push(A);
+
+		return true;
+	}
+
+	/**
+	 * Performs the + operation on the first object on the operand stack: the
+	 * star without the edge skipping the operand
+	 * 
+	 * @return true if it is able to apply it,false otherwise
+	 */
+	private boolean plus() {
+		Table A;
+
+		A = operandStack.pop();
+
+		if (A == null)
+			return false;
+
+		State startState = new State(++StateID);
+		State endState = new State(++StateID);
+
+		startState.addTransition('0', A.getStartState());
+
+		A.getLastState().addTransition('0', endState);
+
+		A.getLastState().addTransition('0', A.getStartState());
+
+		A.push(endState);
+
+		A.getsList().add(0, startState);
+
+		A.setStartState(startState);
+
+		if (A.getLastState() != null)
+			A.getLastState().setFinalState(false);
+		A.setLastState(endState);
+
+		operandStack.push(A);
+
+		return true;
+	}
+
 	/**
 	 * Performs the union operation on the first two objects on the operand
 	 * stack
@@ -167,6 +271,8 @@ public class Operations {
 
 		if (A.getLastState() != null)
 			A.getLastState().setFinalState(false);
+		if (B.getLastState() != null)
+			B.getLastState().setFinalState(false);
 		A.setLastState(endState);
 
 		A.getsList().add(0, startState);
@@ -182,18 +288,30 @@ public class Operations {
 	}
 
 	/**
-	 * Creates a NFA for the given regular expression in postFix form
+	 * Creates a NFA for the given regular expression in postFix form. The
+	 * state ids, the operand stack and the input set start afresh, so after
+	 * the call they only describe the returned table.
 	 * 
 	 * @param regex
 	 *            the regular expression in postfix form
 	 * @return nfaTable
 	 * */
 	public Table createNFA(String regex) {
+		StateID = 0;
+		operandStack.clear();
+		ipSet.clear();
 
 		for (int i = 0; i < regex.length(); ++i) {
 			char c = regex.charAt(i);
 
-			if ((c != '|') && (c != '*') && (c != '&')) {
+			if (c == '[') {
+				int end = RegExConverter.classEnd(regex, i);
+				pushRanges(RegExConverter.classRanges(regex, i, end));
+				i = end;
+			} else if (c == '.') {
+				pushRanges(RegexNode.ANY_CHAR);
+			} else if ((c != '|') && (c != '*') && (c != '&') && (c != '?')
+					&& (c != '+')) {
 				pushChar(c);
 			} else {
 				if (c == '|')
@@ -202,6 +320,12 @@ public class Operations {
 				if (c == '*')
 					star();
 
+				if (c == '?')
+					optional();
+
+				if (c == '+')
+					plus();
+
 				if (c == '&')
 					concat();
 			}
@@ -213,43 +337,6 @@ public class Operations {
 
 	}
 
-	/**
-	 * Creates the epsilon closure of states present in the input table
-	 * 
-	 * @param tbl
-	 *            the input table containing the states
-	 * @return States in epsilon Closure
-	 * */
-	private ArrayList<State> epsilonClosure(Table tbl) {
-
-		Stack<State> tblStk = new Stack<State>();
-		ArrayList<State> result = new ArrayList<State>();
-
-		for (State s : tbl.getsList()) {
-			tblStk.push(s);
-		}
-
-		result = tbl.getsList();
-
-		while (!tblStk.isEmpty()) {
-			State s = tblStk.pop();
-
-			if (s == null)
-				continue;
-			for (int i = 0; i < s.getDirection().size(); i++) {
-
-				if ((s.getDirection().get(i).ipChar == '0')
-						&& (!result.contains(s.getDirection().get(i).nextState))) {
-					result.add(s.getDirection().get(i).nextState);
-					tblStk.push(s.getDirection().get(i).nextState);
-				}
-			}
-		}
-
-		return result;
-
-	}
-
 	/**
 	 * Creates a DFA table out of the given nfa table
 	 * 
@@ -263,125 +350,132 @@ public class Operations {
 		if (nfaTbl.getsList().size() == 0)
 			return null;
 
-		int stateId = 0;
-
-		ArrayList<State> currentStateSet = new ArrayList<State>();
-
-		ArrayList<ArrayList<State>> setOfUnmarkedStateSets = new ArrayList<ArrayList<State>>();
-
-		/* To get epsilon closure of first set */
-		Table temp = new Table();
-		temp.getsList().add(nfaTbl.getStartState());
-		currentStateSet = epsilonClosure(temp);
-
-		State DFAStartState = new State(++stateId);
-		setOfUnmarkedStateSets.add(currentStateSet);
+		Nfa nfa = Nfa.fromTable(nfaTbl);
 
-		HashMap<String, State> dfa = new HashMap<String, State>();
+		return toTable(SubsetConstruction.build(nfa, nfa.charClasses()));
+	}
 
-		dfa.put(generateUniqueKey(currentStateSet), DFAStartState);
+	/**
+	 * Creates the State objects of the given compiled dfa. The states are
+	 * numbered from 1 in the order they are reached from the start state, and
+	 * every state gets one range transition per run of chars of a labelled
+	 * char class.
+	 * 
+	 * @param dfa
+	 *            the compiled dfa
+	 * @return the dfa table
+	 * */
+	private Table toTable(CompiledDfa dfa) {
+		CharClasses classes = dfa.getClasses();
+		State[] states = new State[dfa.getStateCount()];
+		int[] order = new int[dfa.getStateCount()];
 		Table dfaTable = new Table();
-		int i = 0;
-
-		dfaTable.setStartState(DFAStartState);
-		while (i < setOfUnmarkedStateSets.size()) {
-
-			currentStateSet = setOfUnmarkedStateSets.get(i);
-			i++;
-			Table currentTable = new Table();
-			currentTable.setsList(currentStateSet);
-			State currentState = dfa.get(generateUniqueKey(currentStateSet));
-
-			dfaTable.getsList().add(currentState);
-
-			dfa.put(generateUniqueKey(currentStateSet), currentState);
 
-			for (char c : ipSet) {
-				ArrayList<State> nextStateSet = move(c,
-						epsilonClosure(currentTable));
-
-				ArrayList<State> removalStateSet = new ArrayList<State>();
-				for (State s : nextStateSet) {
-					if (s == null)
-						removalStateSet.add(s);
-				}
-				nextStateSet.removeAll(removalStateSet);
-				String key = generateUniqueKey(nextStateSet);
+		/* The runs of chars of the same class, the last one open ended */
+		int[] map = classes.map();
+		int[] runStart = new int[map.length + 1];
+		int runs = 0;
+		for (int c = 0; c <= map.length; c++) {
+			if (c == 0 || c == map.length || map[c] != map[c - 1])
+				runStart[runs++] = c;
+		}
 
-				State nextState;
+		int stateId = 0;
+		order[stateId] = dfa.getStartState();
+		states[dfa.getStartState()] = new State(++stateId);
+		dfaTable.setStartState(states[dfa.getStartState()]);
+		dfaTable.push(states[dfa.getStartState()]);
+
+		for (int i = 0; i < dfaTable.getsList().size(); i++) {
+			State currentState = dfaTable.getsList().get(i);
+			int d = order[i];
+
+			currentState.setFinalState(dfa.isAccepting(d));
+
+			for (int r = 0; r < runs; r++) {
+				char lo = (char) runStart[r];
+				char hi = (char) (r + 1 < runs ? runStart[r + 1] - 1
+						: Character.MAX_VALUE);
+				if (!classes.isLabelled(classes.classOf(lo)))
+					continue;
 
-				for (State s : currentStateSet) {
-					if (s.isFinalState()) {
-						currentState.setFinalState(true);
-					}
+				int next = dfa.next(d, lo);
+				if (states[next] == null) {
+					order[stateId] = next;
+					states[next] = new State(++stateId);
+					dfaTable.push(states[next]);
 				}
-				/**
-				 * check if this set of states exists as a unique state in the
-				 * DFA table, if it exists just add transition from current
-				 * state otherwise create new State and the set of States to the
-				 * unmarkedSet
-				 *
-				 */
-				if (dfa.containsKey(key)) {
-					nextState = dfa.get(key);
-				} else {
-					nextState = new State(++stateId);
-
-					for (State s : nextStateSet) {
-						if (s.isFinalState())
-							nextState.setFinalState(true);
-					}
-
-					dfa.put(key, nextState);
-					setOfUnmarkedStateSets.add(nextStateSet);
-				}
-				currentState.addTransition(c, nextState);
+				currentState.addTransition(lo, hi, states[next]);
 			}
-
 		}
+
 		return dfaTable;
 	}
 
 	/**
-	 * Generates a unique key for the given set of states
+	 * Creates the compiled, table driven DFA for the given nfa table
 	 * 
-	 * @param stateList
-	 *            the list of states
-	 * @return key the unique key for the given set of states
+	 * @param nfaTbl
+	 *            The NFA table to be converted
+	 * 
+	 * @return the compiled DFA, null if the nfa table is empty
 	 * */
-	private String generateUniqueKey(ArrayList<State> u) {
-		// TODO Auto-generated method stub
-		Collections.sort(u);
-		StringBuilder sb = new StringBuilder();
-		for (State s : u) {
-			sb.append(s.getStateId());
-		}
-		return sb.toString();
+	public CompiledDfa compile(Table nfaTbl) {
+		return compile(nfaTbl, false);
 	}
 
 	/**
-	 * Returns the set of states that can be reached from the given set of
-	 * states for the given input
+	 * Creates the compiled, table driven DFA for the given nfa table and
+	 * optionally minimizes it
 	 * 
-	 * @param character
-	 *            c the character that is input
-	 * @param StateSet
-	 *            the set of states that is given
+	 * @param nfaTbl
+	 *            The NFA table to be converted
+	 * @param minimize
+	 *            true to run the minimization pass on the DFA
 	 * 
-	 * @return StateList the list of states that can be reached
+	 * @return the compiled DFA, null if the nfa table is empty
 	 * */
-	private ArrayList<State> move(char c, ArrayList<State> StateSet) {
-		// TODO Auto-generated method stub
+	public CompiledDfa compile(Table nfaTbl, boolean minimize) {
+		if (nfaTbl.getsList().size() == 0)
+			return null;
 
-		ArrayList<State> reachable = new ArrayList<State>();
+		Nfa nfa = Nfa.fromTable(nfaTbl);
+		CompiledDfa dfa = SubsetConstruction.build(nfa, nfa.charClasses());
 
-		for (State s : StateSet) {
-			if (s == null)
-				continue;
-			reachable.add(s.getNextState(c));
-		}
+		return minimize ? DfaMinimizer.minimize(dfa) : dfa;
+	}
 
-		return reachable;
+	/**
+	 * Compiles the given regular expression into a minimized DFA. Unlike the
+	 * instance methods, this keeps no state between calls and can be called
+	 * from several threads at once.
+	 * 
+	 * @param regex
+	 *            the regular expression in infix form
+	 * @return the compiled DFA
+	 * */
+	public static CompiledDfa compileRegex(String regex) {
+		CompileEvent parse = CompileEvent.start(CompileEvent.PARSE, regex);
+		RegexNode tree = RegexSimplifier.simplify(RegexParser.parse(regex));
+		parse.finish(0, 0, 0);
+
+		CompileEvent build = CompileEvent.start(CompileEvent.NFA, regex);
+		Nfa nfa = ThompsonConstruction.build(tree);
+		build.finish(nfa.stateCount, 0, 0);
+
+		CompileEvent subset = CompileEvent.start(
+				CompileEvent.SUBSET_CONSTRUCTION, regex);
+		CharClasses classes = nfa.charClasses();
+		CompiledDfa dfa = SubsetConstruction.build(nfa, classes);
+		subset.finish(nfa.stateCount, dfa.getStateCount(),
+				classes.getClassCount());
+
+		CompileEvent minimization = CompileEvent.start(
+				CompileEvent.MINIMIZATION, regex);
+		CompiledDfa min = DfaMinimizer.minimize(dfa);
+		minimization.finish(nfa.stateCount, min.getStateCount(),
+				classes.getClassCount());
+		return min;
 	}
 
 	/**
@@ -429,7 +523,9 @@ public class Operations {
 			State current = unvisited.pop();
 
 			for (Transitions t : current.getDirection()) {
-				System.out.println(current.getStateId() + "---" + t.ipChar
+				String label = t.hiChar == t.ipChar ? "" + t.ipChar : t.ipChar
+						+ "-" + t.hiChar;
+				System.out.println(current.getStateId() + "---" + label
 						+ "--->" + t.nextState.getStateId());
 				if (visited.contains(t.nextState))
 					continue;
@@ -455,6 +551,10 @@ public class Operations {
 		State currentState = tbl.getStartState();
 		State nextState;
 		for (int i = 0; i < str.length(); i++) {
+			/* A trap that does not accept can only stay or die */
+			if (currentState.isTrap() && !currentState.isFinalState())
+				return false;
+
 			nextState = currentState.getNextState(str.charAt(i));
 			currentState = nextState;
 
@@ -465,6 +565,18 @@ public class Operations {
 		return currentState.isFinalState();
 	}
 
+	/**
+	 * Checks if given string is accepted by the compiled dfa
+	 * 
+	 * @param dfa
+	 *            the compiled dfa
+	 * @param str
+	 *            the string to be tested
+	 * */
+	public boolean check(CompiledDfa dfa, CharSequence str) {
+		return dfa.matches(str);
+	}
+
 	void drawGraphNfa(Table tbl) throws IOException, InterruptedException {
 		PrintWriter pw = new PrintWriter(new File(
 				"~/Desktop/Graphs/drawNfa.R"));
@@ -717,7 +829,13 @@ public class Operations {
 		ob.drawGraph(dfa);
 
 		System.out.println("Enter the string to be checked");
-		System.out.println(ob.check(dfa,ipObj.next()));
+		CompiledDfa compiledDfa = CompiledDfa.fromTable(dfa);
+		CompiledDfa minDfa = DfaMinimizer.minimize(compiledDfa);
+		System.out.println("DFA states before minimization: "
+				+ compiledDfa.getStateCount() + ", after: "
+				+ minDfa.getStateCount());
+
+		System.out.println(ob.check(minDfa, ipObj.next()));
 	}
 
 }
@@ -0,0 +1,183 @@
+package nfa;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Matches one large input against a compiled DFA on several cores. The input
+ * is cut into chunks, and since the state a chunk starts in is not known
+ * until the chunks before it are done, every chunk is run speculatively
+ * from all the DFA states at once, giving a map from the state it is
+ * entered in to the state it is left in. The maps are computed on a
+ * ForkJoinPool and composed, and the composition applied to the start
+ * state gives the final state.
+ *
+ * Runs from different states converge quickly for most patterns, so a chunk
+ * only steps the distinct states still reached, which is usually one after
+ * a few chars. A small minimized DFA keeps the first few chars cheap.
+ * Instances are immutable and can be shared between threads.
+ * */
+public final class ParallelMatcher {
+
+	/* Inputs shorter than this are matched sequentially */
+	static final int MIN_PARALLEL_LENGTH = 1 << 20;
+
+	/* Smallest chunk run by one task */
+	static final int MIN_CHUNK = 64 * 1024;
+
+	private final CompiledDfa dfa;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a matcher running on the common pool
+	 *
+	 * @param dfa
+	 *            the compiled dfa
+	 * */
+	public ParallelMatcher(CompiledDfa dfa) {
+		this(dfa, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a matcher running on the given pool
+	 *
+	 * @param dfa
+	 *            the compiled dfa
+	 * @param pool
+	 *            the pool running the chunks
+	 * */
+	public ParallelMatcher(CompiledDfa dfa, ForkJoinPool pool) {
+		this.dfa = dfa;
+		this.pool = pool;
+	}
+
+	/**
+	 * Checks if the whole of the given input is accepted
+	 *
+	 * @param str
+	 *            the string to be tested
+	 * */
+	public boolean matches(CharSequence str) {
+		int n = str.length();
+		if (n < MIN_PARALLEL_LENGTH || pool.getParallelism() < 2)
+			return dfa.matches(str);
+
+		/* A few chunks per worker, to even out the load */
+		int chunk = Math.max(MIN_CHUNK, n / (4 * pool.getParallelism()));
+
+		int[] map = pool.invoke(new ChunkTask(str, 0, n, chunk));
+		return dfa.isAccepting(map[dfa.getStartState()]);
+	}
+
+	/*
+	 * Computes the state map of the chars from..to-1 of the input
+	 */
+	int[] stateMap(CharSequence str, int from, int to) {
+		int n = dfa.getStateCount();
+
+		/*
+		 * Every state is mapped to one of the count distinct active states,
+		 * except the dead state which never leaves itself
+		 */
+		int[] group = new int[n];
+		int[] active = new int[n];
+		int count = 0;
+		for (int s = 0; s < n; s++) {
+			if (s == CompiledDfa.DEAD)
+				continue;
+			group[s] = count;
+			active[count++] = s;
+		}
+
+		int[] slot = new int[n];
+		int[] stamp = new int[n];
+		int[] remap = new int[n];
+		int step = 0;
+
+		for (int i = from; i < to; i++) {
+			char c = str.charAt(i);
+
+			if (count <= 1) {
+				/* All the runs have met, only one is left to follow */
+				int state = active[0];
+				for (; i < to && state != CompiledDfa.DEAD; i++) {
+					state = dfa.next(state, str.charAt(i));
+				}
+				active[0] = state;
+				break;
+			}
+
+			step++;
+			int merged = 0;
+			for (int a = 0; a < count; a++) {
+				int t = dfa.next(active[a], c);
+				if (stamp[t] == step) {
+					remap[a] = slot[t];
+					merged++;
+				} else {
+					stamp[t] = step;
+					slot[t] = a - merged;
+					remap[a] = a - merged;
+					active[a - merged] = t;
+				}
+			}
+
+			if (merged > 0) {
+				count -= merged;
+				for (int s = 0; s < n; s++) {
+					if (s != CompiledDfa.DEAD)
+						group[s] = remap[group[s]];
+				}
+			}
+		}
+
+		int[] map = new int[n];
+		for (int s = 0; s < n; s++) {
+			map[s] = s == CompiledDfa.DEAD ? s : active[group[s]];
+		}
+		return map;
+	}
+
+	/*
+	 * Computes the state map of a range of the input, splitting it in halves
+	 * run in parallel until the pieces are at most one chunk long
+	 */
+	private final class ChunkTask extends RecursiveTask<int[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final CharSequence str;
+
+		private final int from;
+
+		private final int to;
+
+		private final int chunk;
+
+		ChunkTask(CharSequence str, int from, int to, int chunk) {
+			this.str = str;
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+		}
+
+		@Override
+		protected int[] compute() {
+			if (to - from <= chunk)
+				return stateMap(str, from, to);
+
+			int mid = (from + to) >>> 1;
+			ChunkTask left = new ChunkTask(str, from, mid, chunk);
+			left.fork();
+			int[] right = new ChunkTask(str, mid, to, chunk).compute();
+			int[] first = left.join();
+
+			/* Entering in s leaves the right half in right[first[s]] */
+			for (int s = 0; s < first.length; s++) {
+				first[s] = right[first[s]];
+			}
+			return first;
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package nfa;
+
+/**
+ * Matches by simulating the Thompson NFA directly, in the manner of a Pike
+ * VM. The active states are kept in two sparse sets that are swapped after
+ * every input char, and epsilon edges are followed with an explicit stack,
+ * so a match takes O(n m) time for n NFA states and m input chars and
+ * allocates nothing once the machine is created. There is no compile step
+ * besides indexing the NFA, which makes this the cheap choice for patterns
+ * that are too big to determinize or only matched a few times.
+ *
+ * An instance is not thread safe, every thread needs its own.
+ * */
+public final class PikeVm {
+
+	private final Nfa nfa;
+
+	/* States active before and after the current char */
+	private SparseSet clist;
+
+	private SparseSet nlist;
+
+	/* The offset where the thread of every active state started */
+	private int[] cstart;
+
+	private int[] nstart;
+
+	/* Pending states of addState */
+	private final int[] stack;
+
+	/**
+	 * Creates a machine for the given nfa table
+	 *
+	 * @param nfaTbl
+	 *            the nfa table, as returned by Operations.createNFA
+	 * */
+	public PikeVm(Table nfaTbl) {
+		this(Nfa.fromTable(nfaTbl));
+	}
+
+	PikeVm(Nfa nfa) {
+		this.nfa = nfa;
+		clist = new SparseSet(nfa.stateCount);
+		nlist = new SparseSet(nfa.stateCount);
+		cstart = new int[nfa.stateCount];
+		nstart = new int[nfa.stateCount];
+		stack = new int[nfa.stateCount + 1];
+	}
+
+	/**
+	 * Checks if the whole of the given input is accepted
+	 *
+	 * @param str
+	 *            the string to be tested
+	 * */
+	public boolean matches(CharSequence str) {
+		clist.clear();
+		addState(clist, cstart, nfa.start, 0);
+		final int[] labelStart = nfa.labelStart;
+		final char[] labelLo = nfa.labelLo;
+		final char[] labelHi = nfa.labelHi;
+		final int[] labelTargets = nfa.labelTargets;
+
+		for (int i = 0, n = str.length(); i < n; i++) {
+			char c = str.charAt(i);
+			nlist.clear();
+
+			for (int j = 0; j < clist.size; j++) {
+				int s = clist.dense[j];
+				for (int e = labelStart[s]; e < labelStart[s + 1]; e++) {
+					if (labelLo[e] <= c && c <= labelHi[e])
+						addState(nlist, nstart, labelTargets[e], 0);
+				}
+			}
+
+			if (nlist.size == 0)
+				return false;
+
+			SparseSet t = clist;
+			clist = nlist;
+			nlist = t;
+		}
+
+		for (int j = 0; j < clist.size; j++) {
+			if (nfa.accepting[clist.dense[j]])
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the leftmost-longest match starting at or after from, or the
+	 * match that ends first, with the leftmost start for that end. Every
+	 * thread carries the offset where it started, and a state reached twice
+	 * keeps the thread that started first, so the active states stay sorted
+	 * by start. Once a match is found no new thread is started, the threads
+	 * that started after it are dropped, and the search ends when the rest
+	 * die. The input is read once, in O(n m) time like matches.
+	 *
+	 * @param str
+	 *            the input
+	 * @param from
+	 *            the offset to start looking at
+	 * @param earliest
+	 *            true to stop at the first match that ends
+	 * @return the match, null if there is none
+	 * */
+	Match find(CharSequence str, int from, boolean earliest) {
+		final int[] labelStart = nfa.labelStart;
+		final char[] labelLo = nfa.labelLo;
+		final char[] labelHi = nfa.labelHi;
+		final int[] labelTargets = nfa.labelTargets;
+		int bestStart = -1;
+		int bestEnd = -1;
+
+		clist.clear();
+		for (int i = from, n = str.length();; i++) {
+			/* The thread of a new start comes after all the older ones */
+			if (bestStart == -1)
+				addState(clist, cstart, nfa.start, i);
+
+			/* The first accepting state has the leftmost start */
+			for (int j = 0; j < clist.size; j++) {
+				int s = clist.dense[j];
+				if (nfa.accepting[s]) {
+					if (bestStart == -1 || cstart[s] <= bestStart) {
+						bestStart = cstart[s];
+						bestEnd = i;
+					}
+					break;
+				}
+			}
+
+			if (i == n || (earliest && bestStart != -1))
+				break;
+
+			char c = str.charAt(i);
+			nlist.clear();
+			for (int j = 0; j < clist.size; j++) {
+				int s = clist.dense[j];
+				if (bestStart != -1 && cstart[s] > bestStart)
+					break;
+				for (int e = labelStart[s]; e < labelStart[s + 1]; e++) {
+					if (labelLo[e] <= c && c <= labelHi[e])
+						addState(nlist, nstart, labelTargets[e], cstart[s]);
+				}
+			}
+
+			SparseSet t = clist;
+			clist = nlist;
+			nlist = t;
+			int[] u = cstart;
+			cstart = nstart;
+			nstart = u;
+
+			if (clist.size == 0 && bestStart != -1)
+				break;
+		}
+
+		return bestStart == -1 ? null : new Match(bestStart, bestEnd);
+	}
+
+	/*
+	 * Adds the given state and every state reachable from it on epsilon
+	 * edges, for a thread that started at the given offset
+	 */
+	private void addState(SparseSet list, int[] starts, int s, int start) {
+		if (list.contains(s))
+			return;
+
+		int top = 0;
+		list.add(s);
+		starts[s] = start;
+		stack[top++] = s;
+
+		while (top > 0) {
+			int u = stack[--top];
+			for (int e = nfa.epsilonStart[u]; e < nfa.epsilonStart[u + 1]; e++) {
+				int v = nfa.epsilonTargets[e];
+				if (!list.contains(v)) {
+					list.add(v);
+					starts[v] = start;
+					stack[top++] = v;
+				}
+			}
+		}
+	}
+}
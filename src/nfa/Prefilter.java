@@ -0,0 +1,273 @@
+package nfa;
+
+import java.util.Arrays;
+
+/**
+ * The literals a pattern requires, found on its syntax tree: a prefix that
+ * every match starts with, and a factor that every match contains. A search
+ * uses them to skip ahead with a substring scan, String.indexOf for String
+ * inputs and Boyer-Moore-Horspool for the others, and only runs the DFAs
+ * where a match can be.
+ *
+ * Every subexpression is summed up bottom up by the string it matches if
+ * it matches exactly one, a prefix and a suffix shared by all its matches,
+ * and its longest known required factor. These are what concatenation and
+ * union need to combine. A star or an option matches the empty string so
+ * it keeps nothing, and a char class keeps nothing unless it has a single
+ * char. The literals are cut to MAX_LITERAL chars, which keeps the
+ * analysis linear in the size of the pattern: a part of a required literal
+ * is still required, and a longer one would hardly skip further.
+ * */
+final class Prefilter {
+
+	/* Longest literal kept */
+	static final int MAX_LITERAL = 256;
+
+	/* Every match starts with it, empty if there is no such literal */
+	private final String prefix;
+
+	/* Every match contains it, empty if there is no such literal */
+	private final String factor;
+
+	/* The Horspool shifts of the literals, see shifts */
+	private final int[] prefixShifts;
+
+	private final int[] factorShifts;
+
+	private Prefilter(String prefix, String factor) {
+		this.prefix = prefix;
+		this.factor = factor;
+		this.prefixShifts = shifts(prefix);
+		this.factorShifts = shifts(factor);
+	}
+
+	/**
+	 * Analyses a pattern
+	 *
+	 * @param tree
+	 *            the syntax tree of the pattern
+	 * @return the prefilter of the pattern
+	 * */
+	static Prefilter of(RegexNode tree) {
+		Literals l = literals(tree);
+		return new Prefilter(l.prefix, l.factor);
+	}
+
+	private static Literals literals(RegexNode n) {
+		switch (n.kind) {
+		case EMPTY:
+			return Literals.exactly("");
+		case CHARS:
+			int c = n.singleChar();
+			if (c == -1)
+				return Literals.ANY_ONE;
+			return Literals.exactly(String.valueOf((char) c));
+		case CONCAT:
+			/* A run of exact operands is joined once, not pair by pair */
+			Literals l = null;
+			StringBuilder run = new StringBuilder();
+			for (RegexNode child : n.children) {
+				Literals b = literals(child);
+				if (b.exact != null) {
+					run.append(b.exact);
+					continue;
+				}
+				if (run.length() > 0) {
+					l = concat(l, Literals.exactly(run.toString()));
+					run.setLength(0);
+				}
+				l = concat(l, b);
+			}
+			return run.length() > 0 || l == null ? concat(l, Literals
+					.exactly(run.toString())) : l;
+		case UNION:
+			Literals u = literals(n.children[0]);
+			for (int i = 1; i < n.children.length; i++) {
+				u = u.union(literals(n.children[i]));
+			}
+			return u;
+		case PLUS:
+			/* A repeated operand keeps its ends, not the whole string */
+			Literals a = literals(n.children[0]);
+			return new Literals(null, a.prefix, a.suffix, a.factor);
+		default:
+			/* An operand that may be skipped is lost whatever it was */
+			return Literals.EMPTY_OR_MORE;
+		}
+	}
+
+	private static Literals concat(Literals a, Literals b) {
+		return a == null ? b : a.concat(b);
+	}
+
+	/**
+	 * @return the literal every match starts with, empty if none
+	 * */
+	String prefix() {
+		return prefix;
+	}
+
+	/**
+	 * @return the literal every match contains, empty if none
+	 * */
+	String factor() {
+		return factor;
+	}
+
+	/**
+	 * Returns the first occurrence of the prefix in the input at or after
+	 * from, -1 if there is none
+	 * */
+	int indexOfPrefix(CharSequence str, int from) {
+		return indexOf(str, prefix, prefixShifts, from);
+	}
+
+	/**
+	 * Returns the first occurrence of the factor in the input at or after
+	 * from, -1 if there is none
+	 * */
+	int indexOfFactor(CharSequence str, int from) {
+		return indexOf(str, factor, factorShifts, from);
+	}
+
+	/*
+	 * Returns the first occurrence of the literal in the input at or after
+	 * from, -1 if there is none. The window is moved by the shift of the
+	 * char under its last position, so most chars are never looked at.
+	 */
+	private static int indexOf(CharSequence str, String literal,
+			int[] shifts, int from) {
+		if (str instanceof String)
+			return ((String) str).indexOf(literal, from);
+
+		int m = literal.length();
+		char last = literal.charAt(m - 1);
+		for (int i = from + m - 1, n = str.length(); i < n;) {
+			char c = str.charAt(i);
+			if (c == last) {
+				int start = i - m + 1;
+				int j = m - 2;
+				while (j >= 0 && str.charAt(start + j) == literal.charAt(j)) {
+					j--;
+				}
+				if (j < 0)
+					return start;
+			}
+			i += shifts[c & 0xFF];
+		}
+		return -1;
+	}
+
+	/*
+	 * The Horspool shifts of a literal, by the low byte of the char under
+	 * the last position of the window: how far the window can move before
+	 * a char of the literal with that low byte is under it. Chars sharing a
+	 * low byte share the smallest shift, which is always safe. Null for an
+	 * empty literal, which is never searched.
+	 */
+	private static int[] shifts(String literal) {
+		int m = literal.length();
+		if (m == 0)
+			return null;
+
+		int[] shifts = new int[256];
+		Arrays.fill(shifts, m);
+		for (int j = 0; j < m - 1; j++) {
+			shifts[literal.charAt(j) & 0xFF] = m - 1 - j;
+		}
+		return shifts;
+	}
+
+	/*
+	 * What is known of the matches of one subexpression
+	 */
+	private static final class Literals {
+
+		static final Literals EMPTY_OR_MORE = new Literals(null, "", "", "");
+
+		/* One char of a class, no literal at all */
+		static final Literals ANY_ONE = new Literals(null, "", "", "");
+
+		/* The only string matched, null if there are several */
+		final String exact;
+
+		final String prefix;
+
+		final String suffix;
+
+		final String factor;
+
+		Literals(String exact, String prefix, String suffix, String factor) {
+			this.exact = exact;
+			this.prefix = prefix;
+			this.suffix = suffix;
+			this.factor = factor;
+		}
+
+		/*
+		 * The literals of a single string, which is no longer exact once it
+		 * is cut
+		 */
+		static Literals exactly(String s) {
+			if (s.length() <= MAX_LITERAL)
+				return new Literals(s, s, s, s);
+
+			String p = head(s);
+			return new Literals(null, p, tail(s), p);
+		}
+
+		Literals concat(Literals b) {
+			if (exact != null && b.exact != null)
+				return exactly(exact + b.exact);
+
+			String p = exact != null ? head(exact + b.prefix) : prefix;
+			String s = b.exact != null ? tail(suffix + b.exact) : b.suffix;
+			String f = longest(longest(factor, b.factor), head(suffix
+					+ b.prefix));
+			return new Literals(null, p, s, longest(f, longest(p, s)));
+		}
+
+		/* The first MAX_LITERAL chars of s */
+		private static String head(String s) {
+			return s.length() <= MAX_LITERAL ? s : s.substring(0, MAX_LITERAL);
+		}
+
+		/* The last MAX_LITERAL chars of s */
+		private static String tail(String s) {
+			return s.length() <= MAX_LITERAL ? s : s.substring(s.length()
+					- MAX_LITERAL);
+		}
+
+		Literals union(Literals b) {
+			if (exact != null && exact.equals(b.exact))
+				return this;
+
+			String p = commonPrefix(prefix, b.prefix);
+			String s = commonSuffix(suffix, b.suffix);
+			return new Literals(null, p, s, longest(p, s));
+		}
+
+		private static String longest(String a, String b) {
+			return b.length() > a.length() ? b : a;
+		}
+
+		private static String commonPrefix(String a, String b) {
+			int n = 0;
+			while (n < a.length() && n < b.length()
+					&& a.charAt(n) == b.charAt(n)) {
+				n++;
+			}
+			return a.substring(0, n);
+		}
+
+		private static String commonSuffix(String a, String b) {
+			int n = 0;
+			while (n < a.length() && n < b.length()
+					&& a.charAt(a.length() - 1 - n) == b.charAt(b.length() - 1
+							- n)) {
+				n++;
+			}
+			return a.substring(a.length() - n);
+		}
+	}
+}
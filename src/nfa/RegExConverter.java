@@ -1,120 +1,128 @@
 package nfa;
 
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Stack;
 
 public class RegExConverter {
 
-	/* Operators precedence map. */
-	private static final Map<Character, Integer> precedenceMap;
-	static {
-		Map<Character, Integer> map = new HashMap<Character, Integer>();
-		map.put('(', 1);
-		map.put('|', 2);
-		map.put('&', 3); // explicit concatenation operator
-		map.put('?', 4);
-		map.put('*', 4);
-		map.put('+', 4);
-		map.put('^', 5);
-		precedenceMap = Collections.unmodifiableMap(map);
-	};
-
 	/**
-	 * Get character precedence.
+	 * Convert regular expression from infix to postfix notation. The pattern
+	 * is parsed in one pass by RegexParser and its tree written out in
+	 * postfix, so this takes time linear in the length of the pattern.
 	 * 
-	 * @param c
-	 *            character
-	 * @return corresponding precedence
+	 * @param regex
+	 *            infix notation
+	 * @return postfix notation
 	 */
-	private static Integer getPrecedence(Character c) {
-		Integer precedence = precedenceMap.get(c);
-		return precedence == null ? 6 : precedence;
+	public static String infixToPostfix(String regex) {
+		return RegexParser.parse(regex).toPostfix();
 	}
 
 	/**
-	 * Insert the '&' to denote explicit concatenation in the regular
-	 * expression.That is if the RegEx is abc, this method will return the
-	 * string a&b&c
+	 * Finds the end of the character class starting at the given index. A ']'
+	 * right after the '[' or the '[^' is a member, not the end.
+	 * 
+	 * @param regex
+	 *            the regular expression, infix or postfix
+	 * @param at
+	 *            the index of the '['
+	 * @return the index of the closing ']'
 	 */
-	private static String formatRegEx(String regex) {
-		String res = new String();
-		List<Character> allOperators = Arrays.asList('|', '?', '+', '*', '^');
-		List<Character> binaryOperators = Arrays.asList('^', '|');
-
-		for (int i = 0; i < regex.length(); i++) {
-			Character c1 = regex.charAt(i);
-
-			if (i + 1 < regex.length()) {
-				Character c2 = regex.charAt(i + 1);
-
-				res += c1;
+	static int classEnd(String regex, int at) {
+		int i = at + 1;
+		if (i < regex.length() && regex.charAt(i) == '^')
+			i++;
+		if (i < regex.length() && regex.charAt(i) == ']')
+			i++;
+		int end = regex.indexOf(']', i);
+		if (end == -1)
+			throw new IllegalArgumentException("unclosed character class at "
+					+ at + " in " + regex);
+		return end;
+	}
 
-				if (!c1.equals('(') && !c2.equals(')')
-						&& !allOperators.contains(c2)
-						&& !binaryOperators.contains(c1)) {
-					res += '&';
-				}
+	/**
+	 * Returns the chars of the character class regex[at..end] as sorted,
+	 * disjoint and non adjacent ranges. Members are single chars or ranges
+	 * a-z, a '-' first or last is a member, and a leading '^' complements
+	 * the class.
+	 * 
+	 * @param regex
+	 *            the regular expression, infix or postfix
+	 * @param at
+	 *            the index of the '['
+	 * @param end
+	 *            the index of the closing ']'
+	 * @return the ranges, range i being [2i]..[2i+1]
+	 */
+	static char[] classRanges(String regex, int at, int end) {
+		int i = at + 1;
+		boolean negated = regex.charAt(i) == '^' && i < end;
+		if (negated)
+			i++;
+
+		long[] ranges = new long[end - i];
+		int n = 0;
+		while (i < end) {
+			char lo = regex.charAt(i);
+			char hi = lo;
+			if (i + 2 < end && regex.charAt(i + 1) == '-') {
+				hi = regex.charAt(i + 2);
+				if (hi < lo)
+					throw new IllegalArgumentException("bad range " + lo
+							+ "-" + hi + " in " + regex);
+				i += 3;
+			} else {
+				i++;
 			}
+			ranges[n++] = ((long) lo << 16) | hi;
 		}
-		res += regex.charAt(regex.length() - 1);
-
-		return res;
+		char[] merged = mergeRanges(ranges, n);
+		if (!negated)
+			return merged;
+
+		/* The gaps between the ranges */
+		char[] gaps = new char[merged.length + 2];
+		int g = 0;
+		int next = Character.MIN_VALUE;
+		for (int r = 0; r < merged.length; r += 2) {
+			if (merged[r] > next) {
+				gaps[g++] = (char) next;
+				gaps[g++] = (char) (merged[r] - 1);
+			}
+			next = merged[r + 1] + 1;
+		}
+		if (next <= Character.MAX_VALUE) {
+			gaps[g++] = (char) next;
+			gaps[g++] = Character.MAX_VALUE;
+		}
+		return Arrays.copyOf(gaps, g);
 	}
 
 	/**
-	 * Convert regular expression from infix to postfix notation using
-	 * Shunting-yard algorithm.
+	 * Sorts and merges ranges into disjoint and non adjacent ones
 	 * 
-	 * @param regex
-	 *            infix notation
-	 * @return postfix notation
+	 * @param ranges
+	 *            the ranges, each packed as lo << 16 | hi, sorted in place
+	 * @param n
+	 *            the number of ranges
+	 * @return the merged ranges, range i being [2i]..[2i+1]
 	 */
-	public static String infixToPostfix(String regex) {
-		String postfix = new String();
-
-		Stack<Character> stack = new Stack<Character>();
-
-		String formattedRegEx = formatRegEx(regex);
-
-		for (Character c : formattedRegEx.toCharArray()) {
-			switch (c) {
-			case '(':
-				stack.push(c);
-				break;
-
-			case ')':
-				while (!stack.peek().equals('(')) {
-					postfix += stack.pop();
-				}
-				stack.pop();
-				break;
-
-			default:
-				while (stack.size() > 0) {
-					Character peekedChar = stack.peek();
-
-					Integer peekedCharPrecedence = getPrecedence(peekedChar);
-					Integer currentCharPrecedence = getPrecedence(c);
-
-					if (peekedCharPrecedence >= currentCharPrecedence) {
-						postfix += stack.pop();
-					} else {
-						break;
-					}
-				}
-				stack.push(c);
-				break;
+	static char[] mergeRanges(long[] ranges, int n) {
+		Arrays.sort(ranges, 0, n);
+
+		char[] merged = new char[2 * n];
+		int m = 0;
+		for (int r = 0; r < n; r++) {
+			char lo = (char) (ranges[r] >>> 16);
+			char hi = (char) ranges[r];
+			if (m > 0 && lo <= merged[m - 1] + 1) {
+				if (hi > merged[m - 1])
+					merged[m - 1] = hi;
+			} else {
+				merged[m++] = lo;
+				merged[m++] = hi;
 			}
-
 		}
-
-		while (stack.size() > 0)
-			postfix += stack.pop();
-
-		return postfix;
+		return Arrays.copyOf(merged, m);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,452 @@
+package nfa;
+
+import java.util.Iterator;
+
+/**
+ * A compiled regular expression. The pattern is parsed and turned into a
+ * NFA once, and matching runs on one of several engines:
+ *
+ * DFA - the compiled DFA, built the first time it is needed
+ *
+ * LAZY_DFA - a DFA built on demand with a bounded state cache
+ *
+ * PIKE_VM - the NFA simulated directly, with no determinization
+ *
+ * BIT_PARALLEL - the position automaton simulated in the bits of a long,
+ * for the patterns of less than 64 positions
+ *
+ * AUTO - BIT_PARALLEL when the pattern is small enough, otherwise chosen
+ * per match from the size of the NFA and of the input
+ *
+ * Searching inside an input runs on the DFAs of Searcher, compiled on the
+ * first search, or built lazily by every thread with the LAZY_DFA engine
+ * and for the patterns whose DFAs would be too big. The Pike VM searches
+ * with the PIKE_VM engine, and takes over the searches the lazy DFAs give
+ * up on.
+ *
+ * The NFA is the Thompson one by default, or the epsilon free position
+ * automaton of GlushkovConstruction, which determinizes faster.
+ *
+ * Instances can be shared between threads, the engines that keep mutable
+ * state are created once per thread. Matching is counted in EngineMetrics,
+ * and the compilation phases are recorded as JFR events.
+ * */
+public final class Regex {
+
+	/* The matching engines */
+	public enum Engine {
+		AUTO, DFA, LAZY_DFA, PIKE_VM, BIT_PARALLEL
+	}
+
+	/* The constructions of the NFA */
+	public enum Construction {
+		THOMPSON, GLUSHKOV
+	}
+
+	/* Biggest NFA that AUTO determinizes eagerly */
+	static final int MAX_EAGER_NFA_STATES = 1000;
+
+	/* Most states of each DFA that AUTO builds to search */
+	static final int MAX_SEARCH_DFA_STATES = 10000;
+
+	/* States kept by the lazy DFA of every thread */
+	static final int LAZY_DFA_STATES = 4096;
+
+	private final String pattern;
+
+	private final Engine engine;
+
+	private final Nfa nfa;
+
+	/* The bit parallel matcher, null if the pattern is too big for it */
+	private final BitParallelMatcher bitParallel;
+
+	/* The literals the matches require, to skip ahead while searching */
+	private final Prefilter prefilter;
+
+	/* The length of the longest match, -1 if there is no bound */
+	private final int maxLength;
+
+	/* The compiled DFA, null until an engine needs it */
+	private volatile CompiledDfa dfa;
+
+	/* The searcher on compiled DFAs, null until the first search */
+	private volatile Searcher searcher;
+
+	/* Whether the searches run on the lazy searcher of every thread */
+	private volatile boolean searchLazily;
+
+	/* The state visits of the sampled matches, null until the first one */
+	private volatile StateHistogram histogram;
+
+	private final ThreadLocal<LazyDfa> lazyDfa = new ThreadLocal<LazyDfa>() {
+		@Override
+		protected LazyDfa initialValue() {
+			return new LazyDfa(nfa, LAZY_DFA_STATES);
+		}
+	};
+
+	private final ThreadLocal<PikeVm> pikeVm = new ThreadLocal<PikeVm>() {
+		@Override
+		protected PikeVm initialValue() {
+			return new PikeVm(nfa);
+		}
+	};
+
+	/* The searcher on lazy DFAs, the anchored one matches with LAZY_DFA */
+	private final ThreadLocal<Searcher> lazySearcher = new ThreadLocal<Searcher>() {
+		@Override
+		protected Searcher initialValue() {
+			Nfa reversed = nfa.reverse();
+			return new Searcher(lazyDfa.get(), new LazyDfa(nfa,
+					LAZY_DFA_STATES, true), new LazyDfa(reversed,
+					LAZY_DFA_STATES, false), new LazyDfa(reversed,
+					LAZY_DFA_STATES, true), prefilter, maxLength, pikeVm);
+		}
+	};
+
+	private Regex(String pattern, Engine engine, Nfa nfa,
+			BitParallelMatcher bitParallel, Prefilter prefilter, int maxLength) {
+		this.pattern = pattern;
+		this.engine = engine;
+		this.nfa = nfa;
+		this.bitParallel = bitParallel;
+		this.prefilter = prefilter;
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Compiles the given regular expression, letting the engine be chosen
+	 * automatically
+	 *
+	 * @param regex
+	 *            the regular expression in infix form
+	 * @return the compiled regex
+	 * */
+	public static Regex compile(String regex) {
+		return compile(regex, Engine.AUTO);
+	}
+
+	/**
+	 * Compiles the given regular expression for the given engine
+	 *
+	 * @param regex
+	 *            the regular expression in infix form
+	 * @param engine
+	 *            the engine used for matching
+	 * @return the compiled regex
+	 * */
+	public static Regex compile(String regex, Engine engine) {
+		return compile(regex, engine, Construction.THOMPSON);
+	}
+
+	/**
+	 * Compiles the given regular expression for the given engine, with the
+	 * given construction of the NFA
+	 *
+	 * @param regex
+	 *            the regular expression in infix form
+	 * @param engine
+	 *            the engine used for matching
+	 * @param construction
+	 *            how the NFA is built from the pattern
+	 * @return the compiled regex
+	 * @throws IllegalArgumentException
+	 *             if the engine is BIT_PARALLEL and the pattern has too many
+	 *             positions for it
+	 * */
+	public static Regex compile(String regex, Engine engine,
+			Construction construction) {
+		CompileEvent parse = CompileEvent.start(CompileEvent.PARSE, regex);
+		RegexNode tree = RegexSimplifier.simplify(RegexParser.parse(regex));
+		parse.finish(0, 0, 0);
+
+		CompileEvent build = CompileEvent.start(CompileEvent.NFA, regex);
+		Nfa nfa = construction == Construction.GLUSHKOV ? GlushkovConstruction
+				.build(tree) : ThompsonConstruction.build(tree);
+		build.finish(nfa.stateCount, 0, 0);
+
+		BitParallelMatcher bitParallel = null;
+		if (engine == Engine.AUTO || engine == Engine.BIT_PARALLEL) {
+			bitParallel = BitParallelMatcher.compile(tree);
+			if (bitParallel == null && engine == Engine.BIT_PARALLEL)
+				throw new IllegalArgumentException("more than "
+						+ (BitParallelMatcher.MAX_STATES - 1)
+						+ " positions for BIT_PARALLEL: " + regex);
+		}
+
+		Regex r = new Regex(regex, engine, nfa, bitParallel,
+				Prefilter.of(tree), tree.maxLength());
+		if (engine == Engine.DFA)
+			r.dfa();
+
+		return r;
+	}
+
+	/**
+	 * @return the regular expression this was compiled from
+	 * */
+	public String pattern() {
+		return pattern;
+	}
+
+	/**
+	 * @return the engine this was compiled for
+	 * */
+	public Engine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Checks if the whole of the given input is accepted
+	 *
+	 * @param str
+	 *            the string to be tested
+	 * */
+	public boolean matches(CharSequence str) {
+		EngineMetrics.countMatch(str.length());
+
+		switch (select(str.length())) {
+		case DFA:
+			if (EngineMetrics.sampleStates())
+				return histogram().matches(str);
+			return dfa().matches(str);
+		case LAZY_DFA:
+			return lazyDfa.get().matches(str);
+		case BIT_PARALLEL:
+			return bitParallel.matches(str);
+		default:
+			return pikeVm.get().matches(str);
+		}
+	}
+
+	/**
+	 * Finds the leftmost-longest match of the pattern in the given input
+	 *
+	 * @param str
+	 *            the input
+	 * @return the match, null if there is none
+	 * */
+	public Match find(CharSequence str) {
+		return find(str, 0);
+	}
+
+	/**
+	 * Finds the leftmost-longest match of the pattern that starts at or after
+	 * the given offset
+	 *
+	 * @param str
+	 *            the input
+	 * @param from
+	 *            the offset to start looking at
+	 * @return the match, null if there is none
+	 * */
+	public Match find(CharSequence str, int from) {
+		if (from < 0 || from > str.length())
+			throw new IndexOutOfBoundsException("from: " + from);
+
+		return searcher().find(str, from);
+	}
+
+	/**
+	 * Checks if the pattern matches anywhere in the given input. The search
+	 * stops at the first char that completes a match.
+	 *
+	 * @param str
+	 *            the input
+	 * @return true if some substring of the input is accepted
+	 * */
+	public boolean containsMatch(CharSequence str) {
+		return searcher().findEarliest(str, 0) != null;
+	}
+
+	/**
+	 * Finds the match of the pattern that ends first among those starting at
+	 * or after the given offset, with the leftmost start for that end. Unlike
+	 * find, nothing after the end of the match is read, so it is not
+	 * extended to its longest end.
+	 *
+	 * @param str
+	 *            the input
+	 * @param from
+	 *            the offset to start looking at
+	 * @return the match, null if there is none
+	 * */
+	public Match findEarliest(CharSequence str, int from) {
+		if (from < 0 || from > str.length())
+			throw new IndexOutOfBoundsException("from: " + from);
+
+		return searcher().findEarliest(str, from);
+	}
+
+	/**
+	 * Returns the state visits counted by the sampled matches, see
+	 * EngineMetrics.setStateSampling
+	 *
+	 * @return the histogram over the states of the compiled DFA, null if no
+	 *         match was sampled yet
+	 * */
+	public StateHistogram getStateHistogram() {
+		return histogram;
+	}
+
+	/**
+	 * Returns all the non overlapping leftmost-longest matches of the pattern
+	 * in the given input, found as the iteration goes
+	 *
+	 * @param str
+	 *            the input
+	 * @return the matches, from left to right
+	 * */
+	public Iterable<Match> findAll(final CharSequence str) {
+		return new Iterable<Match>() {
+			@Override
+			public Iterator<Match> iterator() {
+				return searcher().findAll(str).iterator();
+			}
+		};
+	}
+
+	/*
+	 * Picks the engine for an input of the given length. A compiled DFA is
+	 * always used once it exists, and the bit parallel matcher otherwise, so
+	 * a small pattern is never determinized just to be matched. Otherwise
+	 * inputs shorter than the NFA are not worth a determinization and run on
+	 * the Pike VM, and longer ones get the DFA, built lazily when the NFA is
+	 * too big to do it up front.
+	 */
+	private Engine select(int length) {
+		if (engine != Engine.AUTO)
+			return engine;
+		if (dfa != null)
+			return Engine.DFA;
+		if (bitParallel != null)
+			return Engine.BIT_PARALLEL;
+		if (length < nfa.stateCount)
+			return Engine.PIKE_VM;
+		if (nfa.stateCount > MAX_EAGER_NFA_STATES)
+			return Engine.LAZY_DFA;
+		return Engine.DFA;
+	}
+
+	/*
+	 * Returns the compiled DFA, building it on first use. Two threads may
+	 * both build it, which is harmless since the result is immutable.
+	 */
+	private CompiledDfa dfa() {
+		CompiledDfa d = dfa;
+		if (d == null) {
+			d = determinize(nfa, false, Integer.MAX_VALUE);
+			dfa = d;
+		}
+		return d;
+	}
+
+	/*
+	 * Returns the histogram of the compiled DFA, creating it on first use.
+	 * Two threads may both create one, and the counts of the one that is
+	 * dropped are lost, which a sample can afford.
+	 */
+	private StateHistogram histogram() {
+		StateHistogram h = histogram;
+		if (h == null) {
+			h = new StateHistogram(dfa());
+			histogram = h;
+		}
+		return h;
+	}
+
+	/*
+	 * Builds the minimized DFA of the given nfa of the pattern or of its
+	 * reverse, anchored or preceded by any string, recording the two phases.
+	 * Returns null if the subset construction needs more than maxStates.
+	 */
+	private CompiledDfa determinize(Nfa source, boolean unanchored,
+			int maxStates) {
+		CompileEvent subset = CompileEvent.start(
+				CompileEvent.SUBSET_CONSTRUCTION, pattern);
+		CharClasses classes = source.charClasses();
+		CompiledDfa d = SubsetConstruction.build(source, classes, unanchored,
+				maxStates);
+		subset.finish(source.stateCount, d != null ? d.getStateCount() : 0,
+				classes.getClassCount());
+		if (d == null)
+			return null;
+
+		CompileEvent minimization = CompileEvent.start(
+				CompileEvent.MINIMIZATION, pattern);
+		CompiledDfa min = DfaMinimizer.minimize(d);
+		minimization.finish(source.stateCount, min.getStateCount(),
+				classes.getClassCount());
+		return min;
+	}
+
+	/*
+	 * Returns the searcher of the calling thread, building it on first use.
+	 * The DFA engine always searches with compiled DFAs, the lazy DFA engine
+	 * with lazy ones and the Pike VM engine with the Pike VM. The others use
+	 * compiled DFAs unless the NFA is too big to determinize eagerly or a
+	 * DFA would need more than MAX_SEARCH_DFA_STATES states, and lazy ones
+	 * then. The compiled DFA is reused when it exists but never set from
+	 * here, so a search does not change the engine that select picks for
+	 * matching.
+	 */
+	private Searcher searcher() {
+		Searcher s = searcher;
+		if (s != null)
+			return s;
+
+		if (!searchLazily) {
+			s = engine == Engine.PIKE_VM ? new Searcher(pikeVm, prefilter)
+					: dfaSearcher();
+			if (s != null) {
+				searcher = s;
+				return s;
+			}
+			searchLazily = true;
+		}
+		return lazySearcher.get();
+	}
+
+	/*
+	 * Builds the searcher on the four compiled DFAs, null if the engine or
+	 * their size rules them out
+	 */
+	private Searcher dfaSearcher() {
+		int maxStates;
+		switch (engine) {
+		case DFA:
+			maxStates = Integer.MAX_VALUE;
+			break;
+		case LAZY_DFA:
+			return null;
+		default:
+			if (nfa.stateCount > MAX_EAGER_NFA_STATES)
+				return null;
+			maxStates = MAX_SEARCH_DFA_STATES;
+		}
+
+		CompiledDfa anchored = dfa;
+		if (anchored == null)
+			anchored = determinize(nfa, false, maxStates);
+		CompiledDfa unanchored = anchored == null ? null : determinize(nfa,
+				true, maxStates);
+		if (unanchored == null)
+			return null;
+
+		Nfa reversed = nfa.reverse();
+		CompiledDfa reverse = determinize(reversed, false, maxStates);
+		CompiledDfa reverseUnanchored = reverse == null ? null : determinize(
+				reversed, true, maxStates);
+		if (reverseUnanchored == null)
+			return null;
+
+		return new Searcher(anchored, unanchored, reverse, reverseUnanchored,
+				prefilter, maxLength, null);
+	}
+
+	@Override
+	public String toString() {
+		return pattern;
+	}
+}
@@ -0,0 +1,298 @@
+package nfa;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A node of the syntax tree of a regular expression, as built by
+ * RegexParser. Concatenations and unions are n-ary, so that a long pattern
+ * makes a wide tree and not a deep one.
+ *
+ * Nodes are immutable, and equal when they have the same structure, which
+ * is what RegexSimplifier needs to find repeated subexpressions.
+ * */
+final class RegexNode {
+
+	enum Kind {
+		/* The empty string, written '0' */
+		EMPTY,
+		/* One char of a set of ranges */
+		CHARS,
+		CONCAT, UNION, STAR, PLUS, OPTIONAL
+	}
+
+	/* The ranges of '.' */
+	static final char[] ANY_CHAR = { Character.MIN_VALUE, Character.MAX_VALUE };
+
+	static final RegexNode EMPTY = new RegexNode(Kind.EMPTY, null,
+			new RegexNode[0]);
+
+	/* The chars that are operators outside a class */
+	private static final String SPECIAL = "()|*+?&[.0";
+
+	final Kind kind;
+
+	/* The sorted, disjoint ranges of a CHARS node, range i is [2i]..[2i+1] */
+	final char[] ranges;
+
+	/* The operands, one for STAR, PLUS and OPTIONAL */
+	final RegexNode[] children;
+
+	/* True if the node matches the empty string */
+	final boolean nullable;
+
+	private final int hash;
+
+	private RegexNode(Kind kind, char[] ranges, RegexNode[] children) {
+		this.kind = kind;
+		this.ranges = ranges;
+		this.children = children;
+
+		int h = kind.ordinal();
+		if (ranges != null)
+			h = 31 * h + Arrays.hashCode(ranges);
+		for (RegexNode c : children) {
+			h = 31 * h + c.hash;
+		}
+		this.hash = h;
+
+		switch (kind) {
+		case CHARS:
+			nullable = false;
+			break;
+		case CONCAT:
+			nullable = allNullable(children);
+			break;
+		case UNION:
+			nullable = anyNullable(children);
+			break;
+		case PLUS:
+			nullable = children[0].nullable;
+			break;
+		default:
+			nullable = true;
+		}
+	}
+
+	static RegexNode chars(char[] ranges) {
+		return new RegexNode(Kind.CHARS, ranges, new RegexNode[0]);
+	}
+
+	static RegexNode literal(char c) {
+		return chars(new char[] { c, c });
+	}
+
+	static RegexNode concat(List<RegexNode> children) {
+		return new RegexNode(Kind.CONCAT, null,
+				children.toArray(new RegexNode[children.size()]));
+	}
+
+	static RegexNode union(List<RegexNode> children) {
+		return new RegexNode(Kind.UNION, null,
+				children.toArray(new RegexNode[children.size()]));
+	}
+
+	static RegexNode repeat(Kind kind, RegexNode child) {
+		return new RegexNode(kind, null, new RegexNode[] { child });
+	}
+
+	/**
+	 * @return the char of a CHARS node matching exactly one char, -1 for any
+	 *         other node
+	 * */
+	int singleChar() {
+		if (kind == Kind.CHARS && ranges.length == 2 && ranges[0] == ranges[1])
+			return ranges[0];
+		return -1;
+	}
+
+	/**
+	 * @return the number of nodes of the tree
+	 * */
+	int size() {
+		int n = 1;
+		for (RegexNode c : children) {
+			n += c.size();
+		}
+		return n;
+	}
+
+	/**
+	 * @return the length of the longest string the node matches, -1 if
+	 *         there is no bound
+	 * */
+	int maxLength() {
+		long max = 0;
+		switch (kind) {
+		case CHARS:
+			return 1;
+		case CONCAT:
+			for (RegexNode c : children) {
+				int m = c.maxLength();
+				if (m == -1)
+					return -1;
+				max += m;
+			}
+			break;
+		case UNION:
+			for (RegexNode c : children) {
+				int m = c.maxLength();
+				if (m == -1)
+					return -1;
+				max = Math.max(max, m);
+			}
+			break;
+		case OPTIONAL:
+			return children[0].maxLength();
+		case STAR:
+		case PLUS:
+			return -1;
+		default:
+			break;
+		}
+		return max > Integer.MAX_VALUE ? -1 : (int) max;
+	}
+
+	/**
+	 * Writes the tree in the postfix form read by Operations.createNFA, with
+	 * '&' for the concatenation
+	 *
+	 * @return the postfix form
+	 * */
+	String toPostfix() {
+		StringBuilder sb = new StringBuilder();
+		appendPostfix(sb);
+		return sb.toString();
+	}
+
+	private void appendPostfix(StringBuilder sb) {
+		switch (kind) {
+		case EMPTY:
+			sb.append('0');
+			break;
+		case CHARS:
+			appendChars(sb);
+			break;
+		case CONCAT:
+		case UNION:
+			char op = kind == Kind.CONCAT ? '&' : '|';
+			children[0].appendPostfix(sb);
+			for (int i = 1; i < children.length; i++) {
+				children[i].appendPostfix(sb);
+				sb.append(op);
+			}
+			break;
+		default:
+			children[0].appendPostfix(sb);
+			sb.append(kind == Kind.STAR ? '*' : kind == Kind.PLUS ? '+' : '?');
+		}
+	}
+
+	/*
+	 * Writes the ranges as a single char, '.' or a class. In a class a ']'
+	 * goes first, a '-' goes last and a '^' never goes first, so that they
+	 * read as members.
+	 */
+	private void appendChars(StringBuilder sb) {
+		int c = singleChar();
+		if (c != -1 && SPECIAL.indexOf(c) == -1) {
+			sb.append((char) c);
+			return;
+		}
+		if (Arrays.equals(ranges, ANY_CHAR)) {
+			sb.append('.');
+			return;
+		}
+		if (ranges.length == 0) {
+			sb.append("[^").append(ANY_CHAR[0]).append('-')
+					.append(ANY_CHAR[1]).append(']');
+			return;
+		}
+
+		boolean bracket = contains(']');
+		boolean dash = contains('-');
+		boolean caret = !bracket && !dash && ranges[0] == '^';
+
+		sb.append('[');
+		if (bracket)
+			sb.append(']');
+		if (dash && !bracket)
+			sb.append('-');
+		for (int i = 0; i < ranges.length; i += 2) {
+			int lo = ranges[i];
+			int hi = ranges[i + 1];
+			if (caret && i == 0)
+				lo++;
+			for (int from = lo; from <= hi;) {
+				int to = from;
+				while (to <= hi && to != ']' && to != '-') {
+					to++;
+				}
+				appendRange(sb, from, to - 1);
+				from = to + 1;
+			}
+		}
+		if (caret)
+			sb.append('^');
+		if (dash && bracket)
+			sb.append('-');
+		sb.append(']');
+	}
+
+	private static void appendRange(StringBuilder sb, int lo, int hi) {
+		if (lo > hi)
+			return;
+		sb.append((char) lo);
+		if (hi > lo + 1)
+			sb.append('-');
+		if (hi > lo)
+			sb.append((char) hi);
+	}
+
+	private boolean contains(char c) {
+		for (int i = 0; i < ranges.length; i += 2) {
+			if (ranges[i] <= c && c <= ranges[i + 1])
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean allNullable(RegexNode[] nodes) {
+		for (RegexNode n : nodes) {
+			if (!n.nullable)
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean anyNullable(RegexNode[] nodes) {
+		for (RegexNode n : nodes) {
+			if (n.nullable)
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof RegexNode))
+			return false;
+
+		RegexNode n = (RegexNode) o;
+		return hash == n.hash && kind == n.kind
+				&& Arrays.equals(ranges, n.ranges)
+				&& Arrays.equals(children, n.children);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return toPostfix();
+	}
+}
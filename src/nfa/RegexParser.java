@@ -0,0 +1,134 @@
+package nfa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses a regular expression in infix form into a RegexNode tree, in one
+ * left to right pass over the pattern. The grammar is
+ *
+ * union - concat ('|' concat)*
+ *
+ * concat - repeat*
+ *
+ * repeat - atom ('*' | '+' | '?')*
+ *
+ * atom - '(' union ')' | class | '.' | '0' | char
+ *
+ * where '0' is the empty string and a class is [...] as read by
+ * RegExConverter.classRanges. An empty concatenation, as in "a|" or "()",
+ * is the empty string too.
+ * */
+final class RegexParser {
+
+	private final String regex;
+
+	/* The index of the next char to be read */
+	private int pos;
+
+	private RegexParser(String regex) {
+		this.regex = regex;
+	}
+
+	/**
+	 * Parses the given regular expression
+	 *
+	 * @param regex
+	 *            the regular expression in infix form
+	 * @return the syntax tree
+	 * @throws IllegalArgumentException
+	 *             if the parentheses or the classes are not balanced, or an
+	 *             operator has no operand
+	 * */
+	static RegexNode parse(String regex) {
+		RegexParser p = new RegexParser(regex);
+		RegexNode n = p.union();
+		if (p.pos < regex.length())
+			throw p.error("unbalanced ')'");
+		return n;
+	}
+
+	private RegexNode union() {
+		RegexNode first = concat();
+		if (!peek('|'))
+			return first;
+
+		List<RegexNode> alternatives = new ArrayList<RegexNode>();
+		alternatives.add(first);
+		while (peek('|')) {
+			pos++;
+			alternatives.add(concat());
+		}
+		return RegexNode.union(alternatives);
+	}
+
+	private RegexNode concat() {
+		List<RegexNode> factors = new ArrayList<RegexNode>();
+		while (pos < regex.length() && !peek('|') && !peek(')')) {
+			factors.add(repeat());
+		}
+
+		if (factors.isEmpty())
+			return RegexNode.EMPTY;
+		if (factors.size() == 1)
+			return factors.get(0);
+		return RegexNode.concat(factors);
+	}
+
+	private RegexNode repeat() {
+		RegexNode n = atom();
+		while (pos < regex.length()) {
+			char c = regex.charAt(pos);
+			if (c == '*')
+				n = RegexNode.repeat(RegexNode.Kind.STAR, n);
+			else if (c == '+')
+				n = RegexNode.repeat(RegexNode.Kind.PLUS, n);
+			else if (c == '?')
+				n = RegexNode.repeat(RegexNode.Kind.OPTIONAL, n);
+			else
+				break;
+			pos++;
+		}
+		return n;
+	}
+
+	private RegexNode atom() {
+		char c = regex.charAt(pos);
+		switch (c) {
+		case '(':
+			pos++;
+			RegexNode n = union();
+			if (!peek(')'))
+				throw error("unclosed '('");
+			pos++;
+			return n;
+		case '[':
+			int end = RegExConverter.classEnd(regex, pos);
+			char[] ranges = RegExConverter.classRanges(regex, pos, end);
+			pos = end + 1;
+			return RegexNode.chars(ranges);
+		case '.':
+			pos++;
+			return RegexNode.chars(RegexNode.ANY_CHAR);
+		case '0':
+			pos++;
+			return RegexNode.EMPTY;
+		case '*':
+		case '+':
+		case '?':
+			throw error("nothing to repeat");
+		default:
+			pos++;
+			return RegexNode.literal(c);
+		}
+	}
+
+	private boolean peek(char c) {
+		return pos < regex.length() && regex.charAt(pos) == c;
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at " + pos + " in "
+				+ regex);
+	}
+}
@@ -0,0 +1,120 @@
+package nfa;
+
+/**
+ * A set of regular expressions matched together in a single pass. The NFAs
+ * of the patterns are joined under a common start state and determinized as
+ * one product automaton, whose accepting states carry the set of patterns
+ * they accept. Matching an input against the whole set costs the same as
+ * matching it against one pattern, whatever the number of patterns.
+ *
+ * Instances are immutable and can be shared between threads.
+ * */
+public final class RegexSet {
+
+	private final String[] patterns;
+
+	private final CompiledDfa dfa;
+
+	private RegexSet(String[] patterns, CompiledDfa dfa) {
+		this.patterns = patterns;
+		this.dfa = dfa;
+	}
+
+	/**
+	 * Compiles the given regular expressions into one set. Pattern i of the
+	 * set is patterns[i].
+	 *
+	 * @param patterns
+	 *            the regular expressions in infix form
+	 * @return the compiled set
+	 * */
+	public static RegexSet compile(String... patterns) {
+		String[] copy = patterns.clone();
+		Nfa[] parts = new Nfa[copy.length];
+		for (int i = 0; i < copy.length; i++) {
+			CompileEvent parse = CompileEvent.start(CompileEvent.PARSE, copy[i]);
+			RegexNode tree = RegexSimplifier.simplify(RegexParser
+					.parse(copy[i]));
+			parse.finish(0, 0, 0);
+
+			CompileEvent build = CompileEvent.start(CompileEvent.NFA, copy[i]);
+			parts[i] = ThompsonConstruction.build(tree);
+			build.finish(parts[i].stateCount, 0, 0);
+		}
+
+		/* The product phases are recorded under the whole set */
+		String name = String.join(", ", copy);
+		Nfa nfa = Nfa.union(parts);
+
+		CompileEvent subset = CompileEvent.start(
+				CompileEvent.SUBSET_CONSTRUCTION, name);
+		CharClasses classes = nfa.charClasses();
+		CompiledDfa dfa = SubsetConstruction.build(nfa, classes);
+		subset.finish(nfa.stateCount, dfa.getStateCount(),
+				classes.getClassCount());
+
+		CompileEvent minimization = CompileEvent.start(
+				CompileEvent.MINIMIZATION, name);
+		CompiledDfa min = DfaMinimizer.minimize(dfa);
+		minimization.finish(nfa.stateCount, min.getStateCount(),
+				classes.getClassCount());
+		return new RegexSet(copy, min);
+	}
+
+	/**
+	 * @return the number of patterns in the set
+	 * */
+	public int size() {
+		return patterns.length;
+	}
+
+	/**
+	 * @param id
+	 *            the id of a pattern
+	 * @return the regular expression of that pattern
+	 * */
+	public String pattern(int id) {
+		return patterns[id];
+	}
+
+	/**
+	 * Returns the patterns that accept the whole of the given input
+	 *
+	 * @param str
+	 *            the string to be tested
+	 * @return the ids of the matching patterns, in increasing order
+	 * */
+	public int[] matches(CharSequence str) {
+		EngineMetrics.countMatch(str.length());
+		return dfa.matchingPatterns(dfa.run(str));
+	}
+
+	/**
+	 * Checks if at least one pattern accepts the whole of the given input
+	 *
+	 * @param str
+	 *            the string to be tested
+	 * */
+	public boolean matchesAny(CharSequence str) {
+		EngineMetrics.countMatch(str.length());
+		return dfa.matches(str);
+	}
+
+	/**
+	 * @return the product DFA of the set
+	 * */
+	public CompiledDfa getDfa() {
+		return dfa;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < patterns.length; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(patterns[i]);
+		}
+		return sb.toString();
+	}
+}
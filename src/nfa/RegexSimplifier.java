@@ -0,0 +1,207 @@
+package nfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import nfa.RegexNode.Kind;
+
+/**
+ * Rewrites a syntax tree into a smaller one matching the same strings,
+ * before the NFA is built from it. The tree is simplified bottom up with
+ * these rules:
+ *
+ * - nested concatenations and unions are flattened, and the empty string
+ * is dropped from concatenations
+ *
+ * - repetitions of repetitions collapse, (a*)* and (a+)? to a*, and a
+ * nullable operand makes ? useless and + a star
+ *
+ * - a union drops repeated alternatives, factors out the first factor its
+ * alternatives share, ab|ac to a(b|c), and merges its single chars into
+ * one class, a|b to [ab]
+ *
+ * - a union with the empty string becomes an option
+ *
+ * Since the matches are leftmost-longest and capture nothing, the order of
+ * the alternatives of a union does not matter.
+ * */
+final class RegexSimplifier {
+
+	private RegexSimplifier() {
+	}
+
+	/**
+	 * Simplifies the given tree
+	 *
+	 * @param n
+	 *            the syntax tree, as returned by RegexParser.parse
+	 * @return a tree matching the same strings, no bigger
+	 * */
+	static RegexNode simplify(RegexNode n) {
+		switch (n.kind) {
+		case CONCAT:
+			return concat(simplifyAll(n.children));
+		case UNION:
+			return union(simplifyAll(n.children));
+		case STAR:
+		case PLUS:
+		case OPTIONAL:
+			return repeat(n.kind, simplify(n.children[0]));
+		default:
+			return n;
+		}
+	}
+
+	private static List<RegexNode> simplifyAll(RegexNode[] nodes) {
+		List<RegexNode> l = new ArrayList<RegexNode>(nodes.length);
+		for (RegexNode c : nodes) {
+			l.add(simplify(c));
+		}
+		return l;
+	}
+
+	/*
+	 * Builds the repetition of an already simplified operand
+	 */
+	private static RegexNode repeat(Kind kind, RegexNode child) {
+		if (child.kind == Kind.EMPTY)
+			return child;
+
+		if (child.kind == Kind.STAR || child.kind == Kind.PLUS
+				|| child.kind == Kind.OPTIONAL) {
+			/* Only + of + and ? of ? stay what they are, all else is a star */
+			if (child.kind == kind)
+				return child;
+			return repeat(Kind.STAR, child.children[0]);
+		}
+
+		if (child.nullable) {
+			if (kind == Kind.OPTIONAL)
+				return child;
+			if (kind == Kind.PLUS)
+				kind = Kind.STAR;
+		}
+		return RegexNode.repeat(kind, child);
+	}
+
+	/*
+	 * Builds the concatenation of already simplified factors
+	 */
+	private static RegexNode concat(List<RegexNode> factors) {
+		List<RegexNode> flat = new ArrayList<RegexNode>(factors.size());
+		for (RegexNode f : factors) {
+			if (f.kind == Kind.CONCAT)
+				flat.addAll(Arrays.asList(f.children));
+			else if (f.kind != Kind.EMPTY)
+				flat.add(f);
+		}
+
+		if (flat.isEmpty())
+			return RegexNode.EMPTY;
+		if (flat.size() == 1)
+			return flat.get(0);
+		return RegexNode.concat(flat);
+	}
+
+	/*
+	 * Builds the union of already simplified alternatives
+	 */
+	private static RegexNode union(List<RegexNode> alternatives) {
+		boolean empty = false;
+		LinkedHashSet<RegexNode> distinct = new LinkedHashSet<RegexNode>();
+		for (RegexNode a : alternatives) {
+			if (a.kind == Kind.UNION)
+				distinct.addAll(Arrays.asList(a.children));
+			else if (a.kind == Kind.EMPTY)
+				empty = true;
+			else
+				distinct.add(a);
+		}
+
+		/* Group the alternatives by their first factor */
+		Map<RegexNode, List<RegexNode>> groups;
+		groups = new LinkedHashMap<RegexNode, List<RegexNode>>();
+		for (RegexNode a : distinct) {
+			RegexNode head = a.kind == Kind.CONCAT ? a.children[0] : a;
+			List<RegexNode> g = groups.get(head);
+			if (g == null) {
+				g = new ArrayList<RegexNode>();
+				groups.put(head, g);
+			}
+			g.add(a);
+		}
+
+		List<RegexNode> result = new ArrayList<RegexNode>(groups.size());
+		List<RegexNode> singles = new ArrayList<RegexNode>();
+		for (Map.Entry<RegexNode, List<RegexNode>> e : groups.entrySet()) {
+			List<RegexNode> g = e.getValue();
+			RegexNode a;
+			if (g.size() == 1) {
+				a = g.get(0);
+			} else {
+				List<RegexNode> tails = new ArrayList<RegexNode>(g.size());
+				for (RegexNode member : g) {
+					tails.add(tail(member));
+				}
+				a = concat(Arrays.asList(e.getKey(), union(tails)));
+			}
+
+			if (a.kind == Kind.CHARS)
+				singles.add(a);
+			else if (a.kind == Kind.EMPTY)
+				empty = true;
+			else
+				result.add(a);
+		}
+
+		if (singles.size() == 1)
+			result.add(singles.get(0));
+		else if (singles.size() > 1)
+			result.add(mergeChars(singles));
+
+		RegexNode u;
+		if (result.isEmpty())
+			return RegexNode.EMPTY;
+		else if (result.size() == 1)
+			u = result.get(0);
+		else
+			u = RegexNode.union(result);
+
+		return empty ? repeat(Kind.OPTIONAL, u) : u;
+	}
+
+	/*
+	 * Returns what follows the first factor of an alternative
+	 */
+	private static RegexNode tail(RegexNode a) {
+		if (a.kind != Kind.CONCAT)
+			return RegexNode.EMPTY;
+		if (a.children.length == 2)
+			return a.children[1];
+		return RegexNode.concat(Arrays.asList(a.children).subList(1,
+				a.children.length));
+	}
+
+	/*
+	 * Merges CHARS nodes into one matching any of their chars
+	 */
+	private static RegexNode mergeChars(List<RegexNode> nodes) {
+		int n = 0;
+		for (RegexNode c : nodes) {
+			n += c.ranges.length / 2;
+		}
+
+		long[] ranges = new long[n];
+		n = 0;
+		for (RegexNode c : nodes) {
+			for (int i = 0; i < c.ranges.length; i += 2) {
+				ranges[n++] = ((long) c.ranges[i] << 16) | c.ranges[i + 1];
+			}
+		}
+		return RegexNode.chars(RegExConverter.mergeRanges(ranges, n));
+	}
+}
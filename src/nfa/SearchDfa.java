@@ -0,0 +1,47 @@
+package nfa;
+
+/**
+ * A DFA that Searcher can run over an input one char at a time: a compiled
+ * DFA, or a lazy one that builds its states while it runs. A lazy DFA may
+ * forget the states it built when its cache is full, which invalidates the
+ * states its caller holds, and may give up when it keeps doing so.
+ * */
+interface SearchDfa {
+
+	/* Returned by next when the DFA gives up on the rest of the search */
+	int GIVE_UP = -2;
+
+	/**
+	 * @return the start state
+	 * */
+	int getStartState();
+
+	/**
+	 * Returns the state reached from the given state on the given char
+	 *
+	 * @param state
+	 *            the current state
+	 * @param c
+	 *            the input character
+	 * @return the next state, CompiledDfa.DEAD if there is no transition, or
+	 *         GIVE_UP
+	 * */
+	int next(int state, char c);
+
+	/**
+	 * @param state
+	 *            the state to be tested
+	 * @return true if the state is accepting
+	 * */
+	boolean isAccepting(int state);
+
+	/**
+	 * @return a bound on the states, all of them are lower
+	 * */
+	int getStateBound();
+
+	/**
+	 * @return the number of times the states built so far were forgotten
+	 * */
+	long getCacheClears();
+}
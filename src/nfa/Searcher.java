@@ -0,0 +1,482 @@
+package nfa;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Finds the matches of a pattern inside an input with four DFAs.
+ * The unanchored DFA is run forward over the input until it accepts, which
+ * gives the earliest position where some match ends; until then not a
+ * single candidate start is looked at. The DFA of the reversed pattern is
+ * then run backward from that end, no further than where the search began,
+ * and its last accept is the leftmost start of a match ending there.
+ *
+ * That is the earliest match, all a yes/no question needs. The leftmost
+ * match can only start before it if it ends after it, so the anchored DFA
+ * is run forward from every offset between where the search began and that
+ * start at once, in lockstep as StreamMatcher does: one candidate start is
+ * kept per DFA state, since the earliest start in a given state dominates
+ * the later ones, and the pass ends when every candidate is dead. The
+ * lowest candidate that accepted is the leftmost start, else the earliest
+ * match's start is, and the anchored DFA extends the match from there to
+ * its longest end. The candidates only live as long as a run of the
+ * pattern does, so a search reads the input no further than the patterns
+ * starting before its match can follow it. When the pattern has no longest
+ * length, the iteration over all the matches of an input instead runs the
+ * unanchored DFA of the reversed pattern backward once over the rest of the
+ * input, and keeps the offsets where it accepts, which are where a match
+ * starts, in a bitset.
+ *
+ * When the pattern has a literal prefix, the input is first scanned for it
+ * and the search starts at its first occurrence. When it only has a
+ * required factor, an input without it is rejected by the scan alone.
+ *
+ * The DFAs are compiled ones, or lazy ones for the patterns whose DFAs
+ * would be too big, which build only the states the input reaches. A lazy
+ * DFA forgets its states when its cache is full, so the lockstep pass,
+ * which holds many of them, is given up when that happens, and so is any
+ * search whose DFA thrashes. A search given up is done again by the Pike
+ * VM, which tracks the start of every thread and needs no DFA at all; with
+ * the PIKE_VM engine, every search is.
+ *
+ * Matches are reported leftmost-longest and without overlapping. Instances
+ * on compiled DFAs are immutable and shared, those on lazy DFAs belong to
+ * one thread. The candidates of every thread are kept in arrays allocated
+ * once, so nothing is allocated per candidate position.
+ * */
+final class Searcher {
+
+	/* The DFA of the pattern, anchored at the start of the match */
+	private final SearchDfa anchored;
+
+	/* The DFA of the pattern preceded by any string */
+	private final SearchDfa unanchored;
+
+	/* The DFA of the reversed pattern, anchored at the end of the match */
+	private final SearchDfa reverse;
+
+	/* The DFA of the reversed pattern preceded by any string */
+	private final SearchDfa reverseUnanchored;
+
+	/* The literals the matches require */
+	private final Prefilter prefilter;
+
+	/* The length of the longest match, -1 if there is no bound */
+	private final int maxLength;
+
+	/* The machines searching without the DFAs, null when they are built */
+	private final ThreadLocal<PikeVm> pikeVm;
+
+	/* The machines taking over the searches the DFAs give up, or null */
+	private final ThreadLocal<PikeVm> fallback;
+
+	/* The candidates of leftmostStart of every thread */
+	private final ThreadLocal<Candidates> live = new ThreadLocal<Candidates>() {
+		@Override
+		protected Candidates initialValue() {
+			return new Candidates(anchored.getStateBound());
+		}
+	};
+
+	Searcher(SearchDfa anchored, SearchDfa unanchored, SearchDfa reverse,
+			SearchDfa reverseUnanchored, Prefilter prefilter, int maxLength,
+			ThreadLocal<PikeVm> fallback) {
+		this.anchored = anchored;
+		this.unanchored = unanchored;
+		this.reverse = reverse;
+		this.reverseUnanchored = reverseUnanchored;
+		this.prefilter = prefilter;
+		this.maxLength = maxLength;
+		this.pikeVm = null;
+		this.fallback = fallback;
+	}
+
+	Searcher(ThreadLocal<PikeVm> pikeVm, Prefilter prefilter) {
+		this.anchored = null;
+		this.unanchored = null;
+		this.reverse = null;
+		this.reverseUnanchored = null;
+		this.prefilter = prefilter;
+		this.maxLength = -1;
+		this.pikeVm = pikeVm;
+		this.fallback = null;
+	}
+
+	/**
+	 * Returns the leftmost-longest match starting at or after from
+	 *
+	 * @param str
+	 *            the input
+	 * @param from
+	 *            the offset to start looking at
+	 * @return the match, null if there is none
+	 * */
+	Match find(CharSequence str, int from) {
+		return find(str, from, null);
+	}
+
+	/*
+	 * Returns the leftmost-longest match starting at or after from, taking
+	 * the starts from the given bitset once they are known
+	 */
+	private Match find(CharSequence str, int from, Starts starts) {
+		Match m = search(str, from, starts);
+		EngineMetrics.countMatch((m != null ? m.end() : str.length()) - from);
+		return m;
+	}
+
+	/**
+	 * Returns the match that ends first among those starting at or after
+	 * from, with the leftmost start for that end. The search stops at the
+	 * first accepting state and never looks at the input after it.
+	 *
+	 * @param str
+	 *            the input
+	 * @param from
+	 *            the offset to start looking at
+	 * @return the match, null if there is none
+	 * */
+	Match findEarliest(CharSequence str, int from) {
+		Match m = earliest(str, from);
+		EngineMetrics.countMatch((m != null ? m.end() : str.length()) - from);
+		return m;
+	}
+
+	private Match earliest(CharSequence str, int from) {
+		from = skip(str, from);
+		if (from == -1)
+			return null;
+		if (pikeVm != null)
+			return pikeVm.get().find(str, from, true);
+
+		int end = earliestEnd(str, from);
+		if (end == -1)
+			return null;
+
+		int start = end == SearchDfa.GIVE_UP ? end : earliestStart(str, from,
+				end);
+		if (start == SearchDfa.GIVE_UP)
+			return fallback.get().find(str, from, true);
+		return new Match(start, end);
+	}
+
+	private Match search(CharSequence str, int from, Starts starts) {
+		if (starts != null && starts.isKnown(from)) {
+			int start = starts.next(from);
+			if (start == -1)
+				return null;
+			int end = longestEnd(str, start);
+			return end == SearchDfa.GIVE_UP ? fallback.get().find(str, from,
+					false) : new Match(start, end);
+		}
+
+		from = skip(str, from);
+		if (from == -1)
+			return null;
+		if (pikeVm != null)
+			return pikeVm.get().find(str, from, false);
+
+		int end = earliestEnd(str, from);
+		if (end == -1)
+			return null;
+
+		/* Only a match ending after end can start before this one */
+		int start = end == SearchDfa.GIVE_UP ? end : earliestStart(str, from,
+				end);
+		if (start > from && maxLength == -1 && starts != null) {
+			/* Every later search would read the rest of the input again */
+			start = starts.find(from) ? starts.next(from) : SearchDfa.GIVE_UP;
+		} else if (start > from) {
+			start = leftmostStart(str, from, start);
+		}
+
+		end = start == SearchDfa.GIVE_UP ? start : longestEnd(str, start);
+		if (end == SearchDfa.GIVE_UP)
+			return fallback.get().find(str, from, false);
+		return new Match(start, end);
+	}
+
+	/*
+	 * Returns the first offset from which a match may start according to the
+	 * prefilter, -1 if the input cannot hold any match after from
+	 */
+	private int skip(CharSequence str, int from) {
+		if (!prefilter.prefix().isEmpty()) {
+			/* No match starts before the first occurrence of the prefix */
+			return prefilter.indexOfPrefix(str, from);
+		} else if (!prefilter.factor().isEmpty()
+				&& prefilter.indexOfFactor(str, from) == -1) {
+			return -1;
+		}
+		return from;
+	}
+
+	/**
+	 * Returns the matches of the pattern in the input, from left to right
+	 *
+	 * @param str
+	 *            the input
+	 * @return the non overlapping matches
+	 * */
+	Iterable<Match> findAll(final CharSequence str) {
+		return new Iterable<Match>() {
+			@Override
+			public Iterator<Match> iterator() {
+				return new MatchIterator(str);
+			}
+		};
+	}
+
+	/*
+	 * Runs the unanchored DFA from the given offset and returns the first
+	 * offset at which it accepts, -1 if it never does. This and the other
+	 * passes return GIVE_UP when their DFA gives up.
+	 */
+	private int earliestEnd(CharSequence str, int from) {
+		int state = unanchored.getStartState();
+		if (unanchored.isAccepting(state))
+			return from;
+
+		for (int i = from, n = str.length(); i < n; i++) {
+			state = unanchored.next(state, str.charAt(i));
+			if (state == SearchDfa.GIVE_UP)
+				return state;
+			if (unanchored.isAccepting(state))
+				return i + 1;
+		}
+
+		return -1;
+	}
+
+	/*
+	 * Runs the reverse DFA backward from the end of a match, down to from at
+	 * most, and returns the last offset at which it accepted: the leftmost
+	 * start of a match ending at end
+	 */
+	private int earliestStart(CharSequence str, int from, int end) {
+		int state = reverse.getStartState();
+		int first = reverse.isAccepting(state) ? end : -1;
+
+		for (int i = end - 1; i >= from; i--) {
+			state = reverse.next(state, str.charAt(i));
+			if (state == SearchDfa.GIVE_UP)
+				return state;
+			if (state == CompiledDfa.DEAD)
+				break;
+			if (reverse.isAccepting(state))
+				first = i;
+		}
+
+		return first;
+	}
+
+	/*
+	 * Runs the anchored DFA from every offset of [from, earliest) in
+	 * lockstep until all the candidates are dead, and returns the lowest
+	 * one that accepted, earliest if none did. The states of the candidates
+	 * are lost if the DFA forgets them, so the pass is given up then.
+	 */
+	private int leftmostStart(CharSequence str, int from, int earliest) {
+		Candidates c = live.get();
+		int[] state = c.state;
+		int[] start = c.start;
+		int[] seen = c.seen;
+		int count = 0;
+		int best = earliest;
+		long clears = anchored.getCacheClears();
+
+		for (int i = from, n = str.length(); i < n; i++) {
+			/* No start after the best one can win */
+			if (i < best) {
+				state[count] = anchored.getStartState();
+				start[count++] = i;
+			} else if (count == 0) {
+				break;
+			}
+
+			int stamp = c.nextStamp();
+			char ch = str.charAt(i);
+			int j = 0;
+			for (int k = 0; k < count; k++) {
+				int next = anchored.next(state[k], ch);
+				if (next == SearchDfa.GIVE_UP
+						|| anchored.getCacheClears() != clears)
+					return SearchDfa.GIVE_UP;
+
+				/* A later start in the same state has the same future */
+				if (next == CompiledDfa.DEAD || seen[next] == stamp)
+					continue;
+				seen[next] = stamp;
+
+				if (anchored.isAccepting(next)) {
+					/* The later candidates lose to this one */
+					best = start[k];
+					count = k + 1;
+				}
+				state[j] = next;
+				start[j++] = start[k];
+			}
+			count = j;
+		}
+
+		return best;
+	}
+
+	/*
+	 * The live candidates of leftmostStart, sorted by start, at most one per
+	 * DFA state and the one just started
+	 */
+	private static final class Candidates {
+
+		final int[] state;
+
+		final int[] start;
+
+		/* seen[state] == stamp if a candidate already holds that state */
+		final int[] seen;
+
+		private int stamp;
+
+		Candidates(int stateCount) {
+			state = new int[stateCount + 1];
+			start = new int[stateCount + 1];
+			seen = new int[stateCount];
+		}
+
+		int nextStamp() {
+			if (++stamp == 0) {
+				Arrays.fill(seen, 0);
+				stamp = 1;
+			}
+			return stamp;
+		}
+	}
+
+	/*
+	 * Runs the anchored DFA from the given offset until it dies and returns
+	 * the last offset at which it accepted, -1 if it never did
+	 */
+	private int longestEnd(CharSequence str, int from) {
+		int state = anchored.getStartState();
+		int last = anchored.isAccepting(state) ? from : -1;
+
+		for (int i = from, n = str.length(); i < n; i++) {
+			state = anchored.next(state, str.charAt(i));
+			if (state == SearchDfa.GIVE_UP)
+				return state;
+			if (state == CompiledDfa.DEAD)
+				break;
+			if (anchored.isAccepting(state))
+				last = i + 1;
+		}
+
+		return last;
+	}
+
+	/*
+	 * The offsets of an input at which a match starts, found by one
+	 * backward pass of the unanchored reverse DFA from the end of the input
+	 * down to the offset of the first search that needed them
+	 */
+	private final class Starts {
+
+		private final CharSequence str;
+
+		/* Bit i - base is set if a match starts at i */
+		private long[] bits;
+
+		/* The lowest offset the bits cover, -1 before the pass */
+		private int base = -1;
+
+		Starts(CharSequence str) {
+			this.str = str;
+		}
+
+		boolean isKnown(int from) {
+			return base != -1 && from >= base;
+		}
+
+		/* Returns false, with the starts still unknown, if the DFA gave up */
+		boolean find(int from) {
+			int n = str.length();
+			bits = new long[((n - from) >>> 6) + 1];
+
+			int state = reverseUnanchored.getStartState();
+			if (reverseUnanchored.isAccepting(state))
+				set(n, from);
+			for (int i = n - 1; i >= from; i--) {
+				state = reverseUnanchored.next(state, str.charAt(i));
+				if (state == SearchDfa.GIVE_UP) {
+					bits = null;
+					return false;
+				}
+				if (reverseUnanchored.isAccepting(state))
+					set(i, from);
+			}
+
+			base = from;
+			return true;
+		}
+
+		private void set(int i, int from) {
+			bits[(i - from) >>> 6] |= 1L << (i - from);
+		}
+
+		/* Returns the first start at or after from, -1 if there is none */
+		int next(int from) {
+			int w = (from - base) >>> 6;
+			if (w >= bits.length)
+				return -1;
+
+			long word = bits[w] & (-1L << (from - base));
+			while (word == 0) {
+				if (++w == bits.length)
+					return -1;
+				word = bits[w];
+			}
+			return base + (w << 6) + Long.numberOfTrailingZeros(word);
+		}
+	}
+
+	private final class MatchIterator implements Iterator<Match> {
+
+		private final CharSequence str;
+
+		/* The starts of the matches, once a search had to look for them */
+		private final Starts starts;
+
+		/* The match to be returned next, null once there are no more */
+		private Match next;
+
+		MatchIterator(CharSequence str) {
+			this.str = str;
+			starts = new Starts(str);
+			next = find(str, 0, starts);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Match next() {
+			if (next == null)
+				throw new NoSuchElementException();
+
+			Match m = next;
+
+			/* Step over empty matches so the search moves forward */
+			int from = m.end() > m.start() ? m.end() : m.end() + 1;
+			next = from <= str.length() ? find(str, from, starts) : null;
+
+			return m;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package nfa;
+
+/**
+ * A set of ints 0..capacity-1 with constant time insertion, membership test
+ * and clearing, keeping the elements in insertion order. The sparse array
+ * never needs to be initialised, so clearing is just resetting the size.
+ * */
+final class SparseSet {
+
+	/* The elements in insertion order */
+	final int[] dense;
+
+	/* Position of each element in dense */
+	private final int[] sparse;
+
+	int size = 0;
+
+	SparseSet(int capacity) {
+		dense = new int[capacity];
+		sparse = new int[capacity];
+	}
+
+	boolean contains(int i) {
+		int j = sparse[i];
+		return j < size && dense[j] == i;
+	}
+
+	void add(int i) {
+		dense[size] = i;
+		sparse[i] = size++;
+	}
+
+	void clear() {
+		size = 0;
+	}
+}
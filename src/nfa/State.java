@@ -10,7 +10,20 @@ public class State implements Comparable<State> {
 
 	private boolean trap = false;
 
+	/* False until trap is computed, and again after a transition is added */
+	private boolean trapKnown = false;
+
+	/**
+	 * A trap state only has transitions to itself: once in it, the input
+	 * either stays there or is rejected. The answer is computed on the first
+	 * call and kept until a transition is added.
+	 * 
+	 * @return true if every transition leads back to this state
+	 * */
 	public boolean isTrap() {
+		if (trapKnown)
+			return trap;
+
 		trap = true;
 		for (Transitions t : this.direction) {
 			if (t.nextState.getStateId() != this.stateId) {
@@ -18,17 +31,29 @@ public class State implements Comparable<State> {
 				break;
 			}
 		}
+		trapKnown = true;
 
 		return trap;
 	}
 
 	public void setTrap(boolean trap) {
 		this.trap = trap;
+		this.trapKnown = true;
 	}
 
+	/*
+	 * A transition on the chars ipChar..hiChar, or an epsilon transition.
+	 * A single char transition has hiChar == ipChar.
+	 */
 	class Transitions {
 		char ipChar;
+		char hiChar;
+		boolean epsilon;
 		State nextState;
+
+		boolean covers(char c) {
+			return !epsilon && ipChar <= c && c <= hiChar;
+		}
 	}
 
 	private ArrayList<Transitions> direction = new ArrayList<Transitions>();
@@ -47,6 +72,7 @@ public class State implements Comparable<State> {
 
 	public void setDirection(ArrayList<Transitions> direction) {
 		this.direction = direction;
+		this.trapKnown = false;
 	}
 
 	public boolean isFinalState() {
@@ -67,14 +93,37 @@ public class State implements Comparable<State> {
 
 		Transitions ob = new Transitions();
 		ob.ipChar = c;
+		ob.hiChar = c;
+		ob.epsilon = c == '0';
+		ob.nextState = s;
+		direction.add(ob);
+		trapKnown = false;
+	}
+
+	/**
+	 * Adds a transition on every char of the range lo..hi, which is never an
+	 * epsilon transition even when the range is '0'
+	 * 
+	 * @param lo
+	 *            the lowest char of the range
+	 * @param hi
+	 *            the highest char of the range
+	 * @param s
+	 *            the next state
+	 * */
+	public void addTransition(char lo, char hi, State s) {
+		Transitions ob = new Transitions();
+		ob.ipChar = lo;
+		ob.hiChar = hi;
 		ob.nextState = s;
 		direction.add(ob);
+		trapKnown = false;
 	}
 
 	public State getNextState(char c) {
 		State nextState = null;
 		for (Transitions t : direction) {
-			if (t.ipChar == c) {
+			if (t.covers(c)) {
 				nextState = t.nextState;
 				break;
 			}
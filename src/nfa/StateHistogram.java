@@ -0,0 +1,85 @@
+package nfa;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The number of times each state of a compiled DFA was entered by the
+ * sampled matches, to see where the time of a pattern goes: a few hot
+ * states looping on most of the input, or a walk spread over many states
+ * that misses the caches.
+ *
+ * The counts are only made by sampled matches, see EngineMetrics, and are
+ * a sample of the traffic, not its total. Instances can be shared between
+ * threads.
+ * */
+public final class StateHistogram {
+
+	private final CompiledDfa dfa;
+
+	private final AtomicLongArray visits;
+
+	private final LongAdder samples = new LongAdder();
+
+	StateHistogram(CompiledDfa dfa) {
+		this.dfa = dfa;
+		this.visits = new AtomicLongArray(dfa.getStateCount());
+	}
+
+	/**
+	 * Matches the input on the dfa like CompiledDfa.matches, counting the
+	 * states entered
+	 *
+	 * @param str
+	 *            the string to be tested
+	 * @return true if the dfa accepts it
+	 * */
+	boolean matches(CharSequence str) {
+		samples.increment();
+
+		int state = dfa.getStartState();
+		visits.incrementAndGet(state);
+		for (int i = 0, n = str.length(); i < n; i++) {
+			state = dfa.next(state, str.charAt(i));
+			if (state == CompiledDfa.DEAD)
+				return false;
+			visits.incrementAndGet(state);
+		}
+
+		return dfa.isAccepting(state);
+	}
+
+	/**
+	 * @return the dfa whose states are counted
+	 * */
+	public CompiledDfa getDfa() {
+		return dfa;
+	}
+
+	/**
+	 * @return the number of matches sampled
+	 * */
+	public long getSamples() {
+		return samples.sum();
+	}
+
+	/**
+	 * @param state
+	 *            a state of the dfa
+	 * @return the number of times the state was entered
+	 * */
+	public long visits(int state) {
+		return visits.get(state);
+	}
+
+	/**
+	 * @return the visits of every state, indexed by state
+	 * */
+	public long[] snapshot() {
+		long[] counts = new long[visits.length()];
+		for (int s = 0; s < counts.length; s++) {
+			counts[s] = visits.get(s);
+		}
+		return counts;
+	}
+}
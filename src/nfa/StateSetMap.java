@@ -0,0 +1,153 @@
+package nfa;
+
+import java.util.Arrays;
+
+/**
+ * Interns sets of NFA states, given as bitsets of a fixed number of words,
+ * and numbers them 0, 1, 2... in the order they are first added. The sets
+ * are copied into one flat long array and looked up through an open
+ * addressing table of ids hashed on the contents of the bitset, so no key
+ * objects are allocated.
+ * */
+final class StateSetMap {
+
+	/* Number of longs per set */
+	private final int words;
+
+	/* The interned sets, set i is keys[i*words...(i+1)*words-1] */
+	private long[] keys;
+
+	/* Hash of every interned set */
+	private int[] hashes;
+
+	/* Open addressing table of set ids, -1 for a free slot */
+	private int[] slots;
+
+	private int size = 0;
+
+	StateSetMap(int words) {
+		this.words = words;
+		keys = new long[16 * words];
+		hashes = new int[16];
+		slots = new int[32];
+		Arrays.fill(slots, -1);
+	}
+
+	/**
+	 * Returns the id of the given set, adding a copy of it if it is not in the
+	 * map yet. A set was added by the call if the returned id is size() - 1
+	 * afterwards and was not before.
+	 *
+	 * @param set
+	 *            the bitset of states
+	 * @return the id of the set
+	 * */
+	int intern(long[] set) {
+		int h = hash(set);
+		int mask = slots.length - 1;
+
+		for (int i = h & mask;; i = (i + 1) & mask) {
+			int id = slots[i];
+			if (id == -1) {
+				return add(set, h, i);
+			}
+			if (hashes[id] == h && equalsAt(id, set)) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * Returns the id of the given set
+	 *
+	 * @param set
+	 *            the bitset of states
+	 * @return the id of the set, -1 if it is not in the map
+	 * */
+	int find(long[] set) {
+		int h = hash(set);
+		int mask = slots.length - 1;
+
+		for (int i = h & mask;; i = (i + 1) & mask) {
+			int id = slots[i];
+			if (id == -1) {
+				return -1;
+			}
+			if (hashes[id] == h && equalsAt(id, set)) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * Copies the set with the given id into dst
+	 * */
+	void get(int id, long[] dst) {
+		System.arraycopy(keys, id * words, dst, 0, words);
+	}
+
+	/**
+	 * Tells if the set with the given id contains the given state
+	 * */
+	boolean contains(int id, int state) {
+		return (keys[id * words + (state >>> 6)] & (1L << state)) != 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all the sets, keeping the memory already allocated
+	 * */
+	void clear() {
+		Arrays.fill(slots, -1);
+		size = 0;
+	}
+
+	private int add(long[] set, int h, int slot) {
+		int id = size++;
+		if (id == hashes.length) {
+			hashes = Arrays.copyOf(hashes, 2 * id);
+			keys = Arrays.copyOf(keys, 2 * id * words);
+		}
+		System.arraycopy(set, 0, keys, id * words, words);
+		hashes[id] = h;
+		slots[slot] = id;
+
+		/* Keep the load factor at most 1/2 */
+		if (2 * size > slots.length)
+			rehash();
+
+		return id;
+	}
+
+	private void rehash() {
+		slots = new int[2 * slots.length];
+		Arrays.fill(slots, -1);
+		int mask = slots.length - 1;
+		for (int id = 0; id < size; id++) {
+			int i = hashes[id] & mask;
+			while (slots[i] != -1)
+				i = (i + 1) & mask;
+			slots[i] = id;
+		}
+	}
+
+	private boolean equalsAt(int id, long[] set) {
+		int base = id * words;
+		for (int w = 0; w < words; w++) {
+			if (keys[base + w] != set[w])
+				return false;
+		}
+		return true;
+	}
+
+	private int hash(long[] set) {
+		long h = 0;
+		for (int w = 0; w < words; w++) {
+			h = (h + set[w]) * 0x9E3779B97F4A7C15L;
+		}
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,385 @@
+package nfa;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Runs a compiled DFA over a stream of bytes fed in chunks, without
+ * decoding it to a String. Every byte is read as the char of the same
+ * value (ISO-8859-1), and the DFA state is carried from one chunk to the
+ * next, so the result does not depend on where the chunks are cut.
+ *
+ * Two things are computed in the same pass: whether the whole stream is
+ * accepted, and, when a listener is given, the leftmost-longest non
+ * overlapping matches inside the stream. For the matches, the anchored DFA
+ * is run from every start offset at once, keeping one live candidate start
+ * per DFA state since the earliest start in a given state dominates the
+ * later ones. Once a match is reported, the search restarts at its end and
+ * consumes the bytes after it again, so only the bytes from the earliest
+ * end of a candidate's match are kept, and none before the candidates
+ * while no candidate has matched yet.
+ *
+ * The retained bytes are not capped: they are as many as a candidate that
+ * matched can consume past its match while it may still extend it. For
+ * ab|a(b|c)*d, every c after an ab is kept until a d or another char ends
+ * the candidate. With patterns whose runs are bounded, and inputs where
+ * they die soon, it stays small whatever the length of the stream;
+ * getRetainedBytes tells how much it is.
+ *
+ * An instance matches one stream at a time and is not thread safe.
+ * */
+public final class StreamMatcher {
+
+	/* Receives the matches found in the stream */
+	public interface Listener {
+
+		/**
+		 * @param start
+		 *            stream offset of the first byte of the match
+		 * @param end
+		 *            stream offset after the last byte of the match
+		 * */
+		void onMatch(long start, long end);
+	}
+
+	/* Size of the buffers read from channels */
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	/* Largest region of a file mapped at once */
+	private static final long MAP_SIZE = 256L * 1024 * 1024;
+
+	private final CompiledDfa dfa;
+
+	private final Listener listener;
+
+	/* State of the run over the whole stream */
+	private int fullState;
+
+	/* Number of bytes fed so far */
+	private long pos;
+
+	/* The retained bytes, buf[0] being at stream offset base */
+	private byte[] buf = new byte[1024];
+
+	private long base;
+
+	/* Stream offset of the next byte the candidates have to consume */
+	private long cursor;
+
+	/* No match may start before this offset */
+	private long minStart;
+
+	/* The candidate starts, in increasing order of start offset */
+	private int[] candState = new int[16];
+
+	private long[] candStart = new long[16];
+
+	/* End of the longest match of each candidate so far, -1 if none */
+	private long[] candEnd = new long[16];
+
+	private int count;
+
+	/* True if the last candidate is finished: dead, but with a match */
+	private boolean finished;
+
+	/* seen[state] == stamp if a candidate already holds that state */
+	private final int[] seen;
+
+	private int stamp = 0;
+
+	private ByteBuffer chunk;
+
+	/**
+	 * Creates a matcher that only tells if the whole stream is accepted
+	 *
+	 * @param dfa
+	 *            the compiled dfa
+	 * */
+	public StreamMatcher(CompiledDfa dfa) {
+		this(dfa, null);
+	}
+
+	/**
+	 * Creates a matcher that also reports the matches found in the stream
+	 *
+	 * @param dfa
+	 *            the compiled dfa, anchored as built by convertNfaToDfa
+	 * @param listener
+	 *            receives the matches, null to only match the whole stream
+	 * */
+	public StreamMatcher(CompiledDfa dfa, Listener listener) {
+		this.dfa = dfa;
+		this.listener = listener;
+		seen = new int[dfa.getStateCount()];
+		reset();
+	}
+
+	/**
+	 * Forgets the stream fed so far, to match a new one
+	 * */
+	public void reset() {
+		fullState = dfa.getStartState();
+		pos = 0;
+		base = 0;
+		cursor = 0;
+		minStart = 0;
+		count = 0;
+		finished = false;
+	}
+
+	/**
+	 * Feeds the remaining bytes of the given buffer, which can be a mapped
+	 * file region. The position of the buffer is moved to its limit.
+	 *
+	 * @param chunk
+	 *            the next bytes of the stream
+	 * */
+	public void feed(ByteBuffer chunk) {
+		int n = chunk.remaining();
+
+		if (listener == null) {
+			int state = fullState;
+			int at = chunk.position();
+			for (int i = 0; i < n && state != CompiledDfa.DEAD; i++) {
+				state = dfa.next(state, (char) (chunk.get(at + i) & 0xFF));
+			}
+			chunk.position(at + n);
+			fullState = state;
+			pos += n;
+			return;
+		}
+
+		/* Copy big buffers a slice at a time to keep the heap small */
+		while (n > 0) {
+			int len = Math.min(n, CHUNK_SIZE);
+			reserve(len);
+			int at = (int) (pos - base);
+			chunk.get(buf, at, len);
+
+			int state = fullState;
+			for (int i = 0; i < len && state != CompiledDfa.DEAD; i++) {
+				state = dfa.next(state, (char) (buf[at + i] & 0xFF));
+			}
+			fullState = state;
+			pos += len;
+			n -= len;
+
+			advance();
+		}
+	}
+
+	/**
+	 * Feeds everything that can be read from the channel, until its end
+	 *
+	 * @param ch
+	 *            the channel
+	 * @throws IOException
+	 *             if reading fails
+	 * */
+	public void feed(ReadableByteChannel ch) throws IOException {
+		if (chunk == null)
+			chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+
+		while (ch.read(chunk) != -1) {
+			chunk.flip();
+			feed(chunk);
+			chunk.clear();
+		}
+		chunk.flip();
+		feed(chunk);
+		chunk.clear();
+	}
+
+	/**
+	 * Feeds a whole file by mapping it into memory region by region
+	 *
+	 * @param ch
+	 *            the file
+	 * @throws IOException
+	 *             if mapping fails
+	 * */
+	public void feedMapped(FileChannel ch) throws IOException {
+		long size = ch.size();
+		for (long at = 0; at < size; at += MAP_SIZE) {
+			MappedByteBuffer region = ch.map(FileChannel.MapMode.READ_ONLY,
+					at, Math.min(MAP_SIZE, size - at));
+			feed(region);
+		}
+	}
+
+	/**
+	 * Marks the end of the stream and reports the matches still pending
+	 * */
+	public void finish() {
+		if (listener == null)
+			return;
+
+		boolean emptyMatches = dfa.isAccepting(dfa.getStartState());
+
+		while (true) {
+			if (count == 0) {
+				/* An empty match right at the end of the stream */
+				if (emptyMatches && pos >= minStart) {
+					listener.onMatch(pos, pos);
+					minStart = pos + 1;
+				}
+				return;
+			}
+
+			/* The stream is over, every candidate is final now */
+			if (candEnd[0] >= 0) {
+				reportFirst();
+				advance();
+			} else {
+				remove(0);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the stream fed so far is accepted by the dfa
+	 * */
+	public boolean isMatch() {
+		return dfa.isAccepting(fullState);
+	}
+
+	/**
+	 * @return the number of bytes fed so far
+	 * */
+	public long getOffset() {
+		return pos;
+	}
+
+	/**
+	 * @return the number of bytes kept to be consumed again after a match
+	 * */
+	public long getRetainedBytes() {
+		return pos - base;
+	}
+
+	/*
+	 * Moves the candidates over the retained bytes up to pos and drops the
+	 * bytes no restart can consume any more
+	 */
+	private void advance() {
+		while (cursor < pos) {
+			step(cursor, (char) (buf[(int) (cursor - base)] & 0xFF));
+			cursor++;
+
+			/* The first candidate has its longest match once it is dead */
+			if (count > 0 && candState[0] == CompiledDfa.DEAD)
+				reportFirst();
+		}
+
+		/* A match reported later ends at one of these, or after cursor */
+		long keep = cursor;
+		for (int i = 0; i < count; i++) {
+			if (candEnd[i] >= 0 && candEnd[i] < keep)
+				keep = candEnd[i];
+		}
+		if (keep > base) {
+			int drop = (int) (keep - base);
+			System.arraycopy(buf, drop, buf, 0, (int) (pos - keep));
+			base = keep;
+		}
+	}
+
+	/*
+	 * Starts a candidate at offset q, then moves every candidate over the
+	 * char at q
+	 */
+	private void step(long q, char c) {
+		if (!finished && q >= minStart) {
+			int s = dfa.getStartState();
+			add(s, q, dfa.isAccepting(s) ? q : -1);
+		}
+
+		stamp++;
+		int j = 0;
+		for (int i = 0; i < count; i++) {
+			int state = candState[i];
+			long end = candEnd[i];
+
+			if (state != CompiledDfa.DEAD) {
+				state = dfa.next(state, c);
+
+				/*
+				 * A candidate in the same state as an earlier one has the same
+				 * future but loses to it, only its past match can still count
+				 */
+				if (state != CompiledDfa.DEAD && seen[state] == stamp)
+					state = CompiledDfa.DEAD;
+
+				if (state == CompiledDfa.DEAD) {
+					if (end < 0)
+						continue;
+
+					/* Later candidates can only matter after a restart */
+					candState[j] = state;
+					candStart[j] = candStart[i];
+					candEnd[j++] = end;
+					finished = true;
+					break;
+				}
+
+				seen[state] = stamp;
+				if (dfa.isAccepting(state))
+					end = q + 1;
+			}
+
+			candState[j] = state;
+			candStart[j] = candStart[i];
+			candEnd[j++] = end;
+		}
+		count = j;
+	}
+
+	/*
+	 * Reports the match of the first candidate and restarts the search at
+	 * its end, the retained bytes after it being consumed again
+	 */
+	private void reportFirst() {
+		long start = candStart[0];
+		long end = candEnd[0];
+		listener.onMatch(start, end);
+
+		count = 0;
+		finished = false;
+		cursor = end;
+		minStart = end > start ? end : end + 1;
+	}
+
+	private void add(int state, long start, long end) {
+		if (count == candState.length) {
+			candState = Arrays.copyOf(candState, 2 * count);
+			candStart = Arrays.copyOf(candStart, 2 * count);
+			candEnd = Arrays.copyOf(candEnd, 2 * count);
+		}
+		candState[count] = state;
+		candStart[count] = start;
+		candEnd[count++] = end;
+	}
+
+	private void remove(int i) {
+		count--;
+		System.arraycopy(candState, i + 1, candState, i, count - i);
+		System.arraycopy(candStart, i + 1, candStart, i, count - i);
+		System.arraycopy(candEnd, i + 1, candEnd, i, count - i);
+		if (count == 0)
+			finished = false;
+	}
+
+	/*
+	 * Makes room for n more bytes after pos
+	 */
+	private void reserve(int n) {
+		long need = pos - base + n;
+		if (need > buf.length) {
+			buf = Arrays.copyOf(buf, (int) Math.max(need, 2L * buf.length));
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package nfa;
+
+import java.util.Arrays;
+
+/**
+ * Builds a compiled DFA out of a NFA with the subset construction. The
+ * epsilon closure of every NFA state is computed once as a bitset, a DFA
+ * state is the union of the closures reached on one char class, and the
+ * sets are interned in a StateSetMap so each one is expanded only once.
+ * */
+final class SubsetConstruction {
+
+	private SubsetConstruction() {
+	}
+
+	/**
+	 * Creates the DFA for the given nfa. DFA state 0 is the empty set of NFA
+	 * states, which is the dead state of the compiled dfa.
+	 *
+	 * @param nfa
+	 *            the nfa to be converted
+	 * @param classes
+	 *            classes that the labels of the nfa do not split
+	 * @return the compiled dfa
+	 * */
+	static CompiledDfa build(Nfa nfa, CharClasses classes) {
+		return build(nfa, classes, false);
+	}
+
+	/**
+	 * Creates the DFA for the given nfa, optionally unanchored. The
+	 * unanchored DFA behaves as if the pattern was prefixed with any string:
+	 * the closure of the start state is added to every state, so it accepts
+	 * after every prefix of the input that ends with a match.
+	 *
+	 * @param nfa
+	 *            the nfa to be converted
+	 * @param classes
+	 *            classes that the labels of the nfa do not split
+	 * @param unanchored
+	 *            true to let a match start anywhere
+	 * @return the compiled dfa
+	 * */
+	static CompiledDfa build(Nfa nfa, CharClasses classes, boolean unanchored) {
+		return build(nfa, classes, unanchored, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Creates the DFA for the given nfa, optionally unanchored, unless it
+	 * has more than the given number of states
+	 *
+	 * @param nfa
+	 *            the nfa to be converted
+	 * @param classes
+	 *            classes that the labels of the nfa do not split
+	 * @param unanchored
+	 *            true to let a match start anywhere
+	 * @param maxStates
+	 *            the most states to build, the dead state included
+	 * @return the compiled dfa, null if it needs more states
+	 * */
+	static CompiledDfa build(Nfa nfa, CharClasses classes, boolean unanchored,
+			int maxStates) {
+		int n = nfa.stateCount;
+		int words = (n + 63) >>> 6;
+		int k = classes.getClassCount();
+		long[][] closures = nfa.epsilonClosures();
+
+		Nfa.ClassMoves transitions = nfa.classTransitions(classes);
+		int[] moveStart = transitions.start;
+		int[] moves = transitions.moves;
+
+		StateSetMap sets = new StateSetMap(words);
+		sets.intern(new long[words]);
+		sets.intern(closures[nfa.start]);
+
+		int[] table = new int[16 * k];
+		long[] current = new long[words];
+		long[][] next = new long[k][words];
+		boolean[] reached = new boolean[k];
+
+		for (int d = 0; d < sets.size(); d++) {
+			if (sets.size() > maxStates)
+				return null;
+			sets.get(d, current);
+			Arrays.fill(reached, false);
+
+			/* Add the closure of every transition target to its class */
+			for (int w = 0; w < words; w++) {
+				for (long bits = current[w]; bits != 0; bits &= bits - 1) {
+					int s = (w << 6) + Long.numberOfTrailingZeros(bits);
+					for (int e = moveStart[s]; e < moveStart[s + 1]; e += 2) {
+						int c = moves[e];
+						if (!reached[c]) {
+							reached[c] = true;
+							Arrays.fill(next[c], 0);
+						}
+						int t = moves[e + 1];
+						long[] set = next[c];
+
+						/* A state in the set brought its whole closure along */
+						if ((set[t >>> 6] & (1L << t)) != 0)
+							continue;
+
+						long[] closure = closures[t];
+						for (int x = 0; x < words; x++) {
+							set[x] |= closure[x];
+						}
+					}
+				}
+			}
+
+			if ((d + 1) * k > table.length)
+				table = Arrays.copyOf(table, 2 * table.length);
+
+			for (int c = 0; c < k; c++) {
+				/* The dead state stays dead: it is where a search gives up */
+				if (unanchored && d != CompiledDfa.DEAD) {
+					if (!reached[c])
+						Arrays.fill(next[c], 0);
+					long[] start = closures[nfa.start];
+					for (int x = 0; x < words; x++) {
+						next[c][x] |= start[x];
+					}
+					reached[c] = true;
+				}
+				table[d * k + c] = reached[c] ? sets.intern(next[c])
+						: CompiledDfa.DEAD;
+			}
+		}
+
+		int stateCount = sets.size();
+		if (stateCount > maxStates)
+			return null;
+		long[] accept = new long[(stateCount + 63) >>> 6];
+
+		/* A union of patterns also records which ones each state accepts */
+		int patternWords = (nfa.patternCount + 63) >>> 6;
+		long[] matchSets = nfa.patterns == null ? null
+				: new long[stateCount * patternWords];
+
+		for (int s = 0; s < n; s++) {
+			if (!nfa.accepting[s])
+				continue;
+			for (int d = 0; d < stateCount; d++) {
+				if (!sets.contains(d, s))
+					continue;
+				accept[d >>> 6] |= 1L << d;
+				if (matchSets != null) {
+					int p = nfa.patterns[s];
+					matchSets[d * patternWords + (p >>> 6)] |= 1L << p;
+				}
+			}
+		}
+
+		return new CompiledDfa(stateCount, classes, Arrays.copyOf(table,
+				stateCount * k), accept, 1, nfa.patternCount, matchSets);
+	}
+}
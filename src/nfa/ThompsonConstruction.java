@@ -0,0 +1,99 @@
+package nfa;
+
+/**
+ * Builds the Thompson automaton of a pattern from its syntax tree, straight
+ * into the arrays of a Nfa. Every node gives a fragment with one start and
+ * one end state, wired to its operands with epsilon edges as
+ * Operations.createNFA does with State objects, but an n-ary union takes a
+ * single start and end state for all its alternatives, and no object is
+ * made per state or per edge.
+ * */
+final class ThompsonConstruction {
+
+	private final Nfa.Builder builder = new Nfa.Builder();
+
+	private ThompsonConstruction() {
+	}
+
+	/**
+	 * Builds the Thompson automaton of the given tree
+	 *
+	 * @param tree
+	 *            the syntax tree, as returned by RegexParser.parse
+	 * @return the nfa, with one accepting state
+	 * */
+	static Nfa build(RegexNode tree) {
+		ThompsonConstruction t = new ThompsonConstruction();
+		long f = t.fragment(tree);
+		t.builder.setAccepting(end(f));
+		return t.builder.build(start(f));
+	}
+
+	/*
+	 * Adds the states and edges of the node
+	 *
+	 * Returns the fragment, its start state in the high int and its end
+	 * state in the low int
+	 */
+	private long fragment(RegexNode n) {
+		Nfa.Builder b = builder;
+		switch (n.kind) {
+		case EMPTY:
+			int s0 = b.addState();
+			int s1 = b.addState();
+			b.addEpsilon(s0, s1);
+			return fragment(s0, s1);
+
+		case CHARS:
+			int from = b.addState();
+			int to = b.addState();
+			for (int i = 0; i < n.ranges.length; i += 2) {
+				b.addRange(from, n.ranges[i], n.ranges[i + 1], to);
+			}
+			return fragment(from, to);
+
+		case CONCAT:
+			long acc = fragment(n.children[0]);
+			for (int i = 1; i < n.children.length; i++) {
+				long next = fragment(n.children[i]);
+				b.addEpsilon(end(acc), start(next));
+				acc = fragment(start(acc), end(next));
+			}
+			return acc;
+
+		case UNION:
+			int start = b.addState();
+			int end = b.addState();
+			for (RegexNode c : n.children) {
+				long alt = fragment(c);
+				b.addEpsilon(start, start(alt));
+				b.addEpsilon(end(alt), end);
+			}
+			return fragment(start, end);
+
+		default:
+			int in = b.addState();
+			long body = fragment(n.children[0]);
+			int out = b.addState();
+			b.addEpsilon(in, start(body));
+			b.addEpsilon(end(body), out);
+			if (n.kind != RegexNode.Kind.PLUS)
+				b.addEpsilon(in, out);
+			if (n.kind != RegexNode.Kind.OPTIONAL)
+				b.addEpsilon(end(body), start(body));
+			return fragment(in, out);
+		}
+	}
+
+	private static long fragment(int start, int end) {
+		return ((long) start << 32) | end;
+	}
+
+	private static int start(long fragment) {
+		return (int) (fragment >>> 32);
+	}
+
+	private static int end(long fragment) {
+		return (int) fragment;
+	}
+}
@@ -0,0 +1,72 @@
+package nfa;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The skip loop of Accelerator on SIMD registers: a slice of the input is
+ * copied into a char array, and each register of it is compared with the
+ * escapes at once. The array is allocated once per thread, and only a
+ * String or a StringBuilder, which copy their chars in bulk, are given to
+ * this loop. Only compiled with the vector profile, see pom.xml, and
+ * loaded by Accelerator when the incubator module is on the JVM.
+ * */
+final class VectorSkipper implements Accelerator.Skipper {
+
+	private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+
+	/* Chars copied from the input at a time */
+	private static final int SLICE = 512;
+
+	/* The slice of every thread */
+	private static final ThreadLocal<char[]> BUFFER = new ThreadLocal<char[]>() {
+		@Override
+		protected char[] initialValue() {
+			return new char[SLICE];
+		}
+	};
+
+	@Override
+	public int skip(CharSequence str, int from, int to, char[] escapes) {
+		ShortVector e0 = ShortVector.broadcast(SPECIES, (short) escapes[0]);
+		ShortVector e1 = escapes.length > 1 ? ShortVector.broadcast(SPECIES,
+				(short) escapes[1]) : e0;
+		ShortVector e2 = escapes.length > 2 ? ShortVector.broadcast(SPECIES,
+				(short) escapes[2]) : e0;
+		char[] buf = BUFFER.get();
+
+		while (from < to) {
+			int len = Math.min(buf.length, to - from);
+			copy(str, from, len, buf);
+
+			int i = 0;
+			for (int bound = SPECIES.loopBound(len); i < bound; i += SPECIES
+					.length()) {
+				ShortVector v = ShortVector.fromCharArray(SPECIES, buf, i);
+				VectorMask<Short> m = v.eq(e0).or(v.eq(e1)).or(v.eq(e2));
+				if (m.anyTrue())
+					return from + i + m.firstTrue();
+			}
+			for (; i < len; i++) {
+				char c = buf[i];
+				if (c == escapes[0] || c == escapes[escapes.length >> 1]
+						|| c == escapes[escapes.length - 1])
+					return from + i;
+			}
+			from += len;
+		}
+		return to;
+	}
+
+	/*
+	 * Copies str[from..from + len) to the start of buf, str being a String
+	 * or a StringBuilder
+	 */
+	private static void copy(CharSequence str, int from, int len, char[] buf) {
+		if (str instanceof String)
+			((String) str).getChars(from, from + len, buf, 0);
+		else
+			((StringBuilder) str).getChars(from, from + len, buf, 0);
+	}
+}
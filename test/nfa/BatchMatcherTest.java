@@ -0,0 +1,98 @@
+package nfa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Checks the batch entry points of BatchMatcher against matching every
+ * input on its own, with empty inputs and counts that do not fill the last
+ * group of four.
+ * */
+class BatchMatcherTest {
+
+	private static final String PATTERN = "(ab|c)*d?|\u0100+";
+
+	@Test
+	void columnarInputsMatchOneByOne() {
+		CompiledDfa dfa = Operations.compileRegex(PATTERN);
+		BatchMatcher batch = new BatchMatcher(dfa);
+		Random random = new Random(31);
+		char[] alphabet = { 'a', 'b', 'c', 'd', '\u0100' };
+
+		for (int count = 0; count <= 70; count++) {
+			String[] inputs = new String[count];
+			StringBuilder chars = new StringBuilder("xx");
+			int[] offsets = new int[count + 3];
+			for (int i = 0; i < count; i++) {
+				/* Half of them empty, the rest short runs of the pattern */
+				char[] s = new char[random.nextBoolean() ? 0 : random
+						.nextInt(9)];
+				for (int j = 0; j < s.length; j++) {
+					s[j] = random.nextInt(3) == 0 ? alphabet[random
+							.nextInt(alphabet.length)] : "abc".charAt(j % 2);
+				}
+				inputs[i] = new String(s);
+				offsets[i] = chars.length();
+				chars.append(s);
+			}
+			offsets[count] = chars.length();
+
+			/* Chars and offsets past the inputs are not read */
+			chars.append("dd");
+			offsets[count + 1] = -1;
+			offsets[count + 2] = -1;
+
+			long[] expected = new long[(count + 63) >>> 6];
+			for (int i = 0; i < count; i++) {
+				if (dfa.matches(inputs[i]))
+					expected[i >>> 6] |= 1L << i;
+			}
+
+			char[] buf = chars.toString().toCharArray();
+			assertArrayEquals(expected, batch.matches(buf, offsets, count),
+					"count " + count);
+			assertArrayEquals(expected, batch.matches(inputs), "count "
+					+ count);
+			assertArrayEquals(expected, batch.matches(Arrays.asList(inputs)),
+					"count " + count);
+		}
+	}
+
+	@Test
+	void emptyInputsAreMatchedByTheStartState() {
+		BatchMatcher star = new BatchMatcher(Operations.compileRegex("a*"));
+		BatchMatcher plus = new BatchMatcher(Operations.compileRegex("a+"));
+		char[] none = new char[0];
+		int[] offsets = new int[7];
+
+		assertArrayEquals(new long[] { 0x3F }, star.matches(none, offsets, 6));
+		assertArrayEquals(new long[] { 0 }, plus.matches(none, offsets, 6));
+		assertEquals(0, star.matches(none, new int[1], 0).length);
+	}
+
+	@Test
+	void missingOffsetsAreRejected() {
+		final BatchMatcher batch = new BatchMatcher(Operations
+				.compileRegex(PATTERN));
+
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			@Override
+			public void execute() {
+				batch.matches("abab".toCharArray(), new int[] { 0, 2 }, 2);
+			}
+		});
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			@Override
+			public void execute() {
+				batch.matches(new char[0], new int[1], -1);
+			}
+		});
+	}
+}
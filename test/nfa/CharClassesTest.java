@@ -0,0 +1,145 @@
+package nfa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the char classes are exact: two chars share a class only if
+ * the same labels cover them, even when the labels are picked so that the
+ * signatures of their covering sets collide.
+ * */
+class CharClassesTest {
+
+	/* Labels of the pattern, enough for their keys to be dependent */
+	private static final int LABELS = 129;
+
+	private static final char TOP = '\u0200';
+
+	@Test
+	void collidingLabelSetsAreSplit() {
+		List<Integer> subset = dependentSubset();
+		StringBuilder pattern = new StringBuilder();
+		char[] good = new char[LABELS];
+		for (int i = 0; i < LABELS; i++) {
+			char c = (char) ('\u0100' + i);
+			good[i] = c;
+			if (subset.contains(i))
+				pattern.append('[').append(c).append('-').append(TOP)
+						.append(']');
+			else
+				pattern.append(c);
+		}
+
+		/*
+		 * The chars above the single ones are covered by exactly the labels
+		 * of the subset, whose keys XOR to 0 like those of 'q'
+		 */
+		char[] bad = good.clone();
+		bad[subset.get(0)] = 'q';
+		String re = pattern.toString();
+		String in = new String(bad);
+
+		CharClasses classes = Operations.compileRegex(re).getClasses();
+		assertNotEquals(classes.classOf('q'), classes.classOf(TOP));
+
+		assertTrue(Operations.compileRegex(re).matches(new String(good)));
+		assertFalse(Operations.compileRegex(re).matches(in));
+		for (Regex.Engine engine : Regex.Engine.values()) {
+			/* Too many positions for the bit parallel matcher */
+			if (engine == Regex.Engine.BIT_PARALLEL)
+				continue;
+			Regex regex = Regex.compile(re, engine);
+			assertFalse(regex.matches(in), engine.toString());
+			assertNull(regex.find(in), engine.toString());
+		}
+	}
+
+	@Test
+	void classesFollowTheLabels() {
+		char[] lo = { 'a', 'c', 'a', 'x', 'b' };
+		char[] hi = { 'z', 'e', 'z', 'x', 'b' };
+		CharClasses classes = CharClasses.of(lo, hi, lo.length);
+
+		/* Uncovered, a-z alone, then with b, with c-e and with x */
+		assertEquals(5, classes.getClassCount());
+		assertEquals(classes.classOf('a'), classes.classOf('f'));
+		assertEquals(classes.classOf('a'), classes.classOf('z'));
+		assertEquals(classes.classOf('`'), classes.classOf('{'));
+		assertEquals(classes.classOf('c'), classes.classOf('e'));
+		assertNotEquals(classes.classOf('b'), classes.classOf('c'));
+		assertNotEquals(classes.classOf('x'), classes.classOf('y'));
+	}
+
+	/*
+	 * Returns indexes of labels whose keys, as they were once derived from
+	 * the index alone, XOR to 0: Gaussian elimination over GF(2) on the 128
+	 * bit keys, tracking which labels make up every row
+	 */
+	private static List<Integer> dependentSubset() {
+		long[][] rows = new long[LABELS][];
+		long[][] used = new long[LABELS][];
+		for (int i = 0; i < LABELS; i++) {
+			rows[i] = new long[] { mix(i), mix(~i) };
+			used[i] = new long[(LABELS + 63) >>> 6];
+			used[i][i >>> 6] |= 1L << i;
+		}
+
+		for (int bit = 0, row = 0; bit < 128 && row < LABELS; bit++) {
+			int pivot = -1;
+			for (int r = row; r < LABELS && pivot == -1; r++) {
+				if ((rows[r][bit >>> 6] & (1L << bit)) != 0)
+					pivot = r;
+			}
+			if (pivot == -1)
+				continue;
+
+			swap(rows, row, pivot);
+			swap(used, row, pivot);
+			for (int r = 0; r < LABELS; r++) {
+				if (r != row && (rows[r][bit >>> 6] & (1L << bit)) != 0) {
+					xor(rows[r], rows[row]);
+					xor(used[r], used[row]);
+				}
+			}
+			row++;
+		}
+
+		for (int r = 0; r < LABELS; r++) {
+			if (rows[r][0] == 0 && rows[r][1] == 0) {
+				List<Integer> subset = new ArrayList<Integer>();
+				for (int i = 0; i < LABELS; i++) {
+					if ((used[r][i >>> 6] & (1L << i)) != 0)
+						subset.add(i);
+				}
+				return subset;
+			}
+		}
+		throw new AssertionError("129 keys of 128 bits are dependent");
+	}
+
+	private static long mix(long x) {
+		x = (x + 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+		x = (x ^ (x >>> 31)) * 0x94D049BB133111EBL;
+		return x ^ (x >>> 29);
+	}
+
+	private static void swap(long[][] a, int i, int j) {
+		long[] t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+
+	private static void xor(long[] a, long[] b) {
+		for (int i = 0; i < a.length; i++) {
+			a[i] ^= b[i];
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package nfa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Checks the eviction order of DfaCache, that concurrent misses on one
+ * expression compile it once, that failures are not cached, and the
+ * counters.
+ * */
+class DfaCacheTest {
+
+	@Test
+	void referencedEntriesGetASecondChance() {
+		DfaCache cache = new DfaCache(3);
+		CompiledDfa a = cache.get("a");
+		cache.get("b");
+		CompiledDfa c = cache.get("c");
+
+		/* The hand clears the flag of a, then evicts b */
+		assertSame(a, cache.get("a"));
+		CompiledDfa d = cache.get("d");
+		assertEquals(3, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertEquals(4, cache.getMisses());
+
+		assertSame(a, cache.get("a"));
+		assertSame(c, cache.get("c"));
+		assertSame(d, cache.get("d"));
+		assertEquals(4, cache.getMisses());
+
+		/*
+		 * b comes back, and the hand clears the flags of c, d and a before it
+		 * reaches b, the only entry not looked up since it last passed
+		 */
+		cache.get("b");
+		assertEquals(5, cache.getMisses());
+		assertEquals(2, cache.getEvictions());
+		assertSame(a, cache.get("a"));
+		assertSame(c, cache.get("c"));
+		assertSame(d, cache.get("d"));
+		assertEquals(5, cache.getMisses());
+	}
+
+	@Test
+	void concurrentMissesCompileOnce() throws Exception {
+		final int threads = 8;
+		final DfaCache cache = new DfaCache(4);
+
+		/* About 2^12 states, slow enough for the misses to overlap */
+		StringBuilder p = new StringBuilder("(a|b)*a");
+		for (int i = 0; i < 11; i++) {
+			p.append("(a|b)");
+		}
+		final String regex = p.toString();
+		final CountDownLatch go = new CountDownLatch(1);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<CompiledDfa>> results = new ArrayList<Future<CompiledDfa>>();
+			for (int i = 0; i < threads; i++) {
+				results.add(pool.submit(new Callable<CompiledDfa>() {
+					@Override
+					public CompiledDfa call() throws Exception {
+						go.await();
+						return cache.get(regex);
+					}
+				}));
+			}
+			go.countDown();
+
+			CompiledDfa first = results.get(0).get();
+			for (Future<CompiledDfa> f : results) {
+				assertSame(first, f.get());
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		assertEquals(1, cache.getMisses());
+		assertEquals(threads - 1, cache.getHits());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	void failuresAreNotCached() {
+		final DfaCache cache = new DfaCache(2);
+		CompiledDfa a = cache.get("a");
+
+		for (int i = 0; i < 3; i++) {
+			assertThrows(IllegalArgumentException.class, new Executable() {
+				@Override
+				public void execute() {
+					cache.get("(a");
+				}
+			});
+		}
+
+		/* Every call compiled it again, and nothing was evicted for it */
+		assertEquals(4, cache.getMisses());
+		assertEquals(0, cache.getEvictions());
+		assertEquals(1, cache.size());
+		assertSame(a, cache.get("a"));
+		assertTrue(cache.get("b").matches("b"));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	void countersAddUp() {
+		DfaCache cache = new DfaCache(2);
+		String[] lookups = { "a", "b", "a", "c", "a", "b", "b" };
+		for (String regex : lookups) {
+			cache.get(regex);
+		}
+
+		/* c evicts b, then b evicts c since a was referenced again */
+		assertEquals(3, cache.getHits());
+		assertEquals(4, cache.getMisses());
+		assertEquals(2, cache.getEvictions());
+		assertEquals(2, cache.size());
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(3, cache.getHits());
+		assertEquals(4, cache.getMisses());
+		assertEquals(2, cache.getEvictions());
+	}
+}
@@ -0,0 +1,261 @@
+package nfa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that every engine agrees with java.util.regex on generated
+ * patterns and inputs: the matchers of whole inputs against matches(), the
+ * searches of Regex against a brute force leftmost-longest search, and the
+ * matchers fed an input in pieces against the compiled DFA they run.
+ *
+ * The patterns use the syntax shared by both, over a three letter
+ * alphabet so that the short inputs hit the patterns often.
+ * */
+class EngineEquivalenceTest {
+
+	private static final String[] ATOMS = { "a", "b", "c", ".", "[ab]",
+			"[^a]", "[a-b]" };
+
+	private static final int PATTERNS = 400;
+
+	private static final int INPUTS = 12;
+
+	@Test
+	void wholeInputEnginesAgreeWithJavaUtilRegex() throws IOException {
+		Random r = new Random(1);
+		DfaCache cache = new DfaCache(16);
+		for (int p = 0; p < PATTERNS; p++) {
+			String re = pattern(r, 3);
+			Pattern expected = Pattern.compile(re, Pattern.DOTALL);
+
+			Operations ob = new Operations();
+			Table table = ob.convertNfaToDfa(nfa(re));
+			CompiledDfa fromTable = CompiledDfa.fromTable(table);
+			CompiledDfa dfa = new Operations().compile(nfa(re));
+			CompiledDfa unminimized = new Operations().compile(nfa(re), false);
+			LazyDfa lazy = new LazyDfa(nfa(re), 4);
+			CompiledDfa cached = cache.get(re);
+			CompiledDfa decoded = DfaFile.decode(DfaFile.encode(dfa));
+			MappedDfa mapped = new MappedDfa(DfaFile.encode(dfa));
+			DfaMatcher generated = BytecodeCompiler.compile(dfa);
+			RegexSet set = RegexSet.compile(re, "(a|b|c)*");
+
+			List<String> names = new ArrayList<String>();
+			List<Regex> regexes = new ArrayList<Regex>();
+			for (Regex.Engine engine : Regex.Engine.values()) {
+				for (Regex.Construction c : Regex.Construction.values()) {
+					Regex regex = compile(re, engine, c);
+					if (regex == null)
+						continue;
+					names.add(engine + "/" + c);
+					regexes.add(regex);
+				}
+			}
+
+			for (int i = 0; i < INPUTS; i++) {
+				String s = input(r, 10);
+				boolean e = expected.matcher(s).matches();
+				String where = re + " on '" + s + "'";
+
+				assertEquals(e, ob.check(table, s), "check " + where);
+				assertEquals(e, fromTable.matches(s), "fromTable " + where);
+				assertEquals(e, dfa.matches(s), "compile " + where);
+				assertEquals(e, unminimized.matches(s), "unminimized " + where);
+				assertEquals(e, lazy.matches(s), "LazyDfa " + where);
+				assertEquals(e, cached.matches(s), "DfaCache " + where);
+				assertEquals(e, decoded.matches(s), "DfaFile " + where);
+				assertEquals(e, mapped.matches(s), "MappedDfa " + where);
+				assertEquals(e, generated.matches(s), "BytecodeCompiler "
+						+ where);
+				for (int k = 0; k < regexes.size(); k++) {
+					assertEquals(e, regexes.get(k).matches(s), names.get(k)
+							+ " " + where);
+				}
+				assertArrayEquals(e ? new int[] { 0, 1 } : new int[] { 1 },
+						set.matches(s), "RegexSet " + where);
+			}
+		}
+	}
+
+	@Test
+	void searchesAgreeWithBruteForce() {
+		Random r = new Random(2);
+		for (int p = 0; p < PATTERNS; p++) {
+			String re = pattern(r, 3);
+			Pattern expected = Pattern.compile(re, Pattern.DOTALL);
+
+			for (Regex.Engine engine : Regex.Engine.values()) {
+				Regex regex = compile(re, engine, Regex.Construction.THOMPSON);
+				if (regex == null)
+					continue;
+
+				for (int i = 0; i < INPUTS / 2; i++) {
+					String s = input(r, 12);
+					String where = engine + " " + re + " on '" + s + "'";
+
+					assertEquals(findAll(expected, s), matches(regex
+							.findAll(s)), "findAll " + where);
+
+					int from = r.nextInt(s.length() + 1);
+					Match earliest = earliest(expected, s, from);
+					assertEquals(earliest, regex.findEarliest(s, from),
+							"findEarliest " + where + " from " + from);
+					assertEquals(earliest(expected, s, 0) != null,
+							regex.containsMatch(s), "containsMatch " + where);
+				}
+			}
+		}
+	}
+
+	@Test
+	void chunkedMatchersAgreeWithTheirDfa() {
+		Random r = new Random(3);
+		for (int p = 0; p < PATTERNS; p++) {
+			String re = pattern(r, 3);
+			CompiledDfa dfa = new Operations().compile(nfa(re));
+
+			String[] inputs = new String[INPUTS];
+			for (int i = 0; i < INPUTS; i++) {
+				inputs[i] = input(r, 16);
+			}
+			long[] batch = new BatchMatcher(dfa).matches(inputs);
+
+			for (int i = 0; i < INPUTS; i++) {
+				String s = inputs[i];
+				boolean e = dfa.matches(s);
+				String where = re + " on '" + s + "'";
+				int cut = r.nextInt(s.length() + 1);
+
+				assertEquals(e, (batch[i >>> 6] & (1L << i)) != 0, "batch "
+						+ where);
+
+				StreamMatcher stream = new StreamMatcher(dfa);
+				byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+				stream.feed(ByteBuffer.wrap(bytes, 0, cut));
+				stream.feed(ByteBuffer.wrap(bytes, cut, bytes.length - cut));
+				assertEquals(e, stream.isMatch(), "stream " + where);
+
+				ParallelMatcher parallel = new ParallelMatcher(dfa);
+				int[] left = parallel.stateMap(s, 0, cut);
+				int[] right = parallel.stateMap(s, cut, s.length());
+				assertEquals(e, dfa.isAccepting(right[left[dfa
+						.getStartState()]]), "parallel " + where);
+
+				IncrementalMatcher incremental = new IncrementalMatcher(dfa, 3);
+				incremental.match(s);
+				String edited = s.substring(0, cut) + "ab"
+						+ s.substring(Math.min(s.length(), cut + 1));
+				assertEquals(dfa.matches(edited), incremental.edit(edited,
+						cut, Math.min(1, s.length() - cut), 2), "incremental "
+						+ where + " edited to '" + edited + "'");
+			}
+		}
+	}
+
+	/*
+	 * The NFA table of the pattern, as Operations builds it
+	 */
+	private static Table nfa(String re) {
+		return new Operations().createNFA(RegExConverter.infixToPostfix(re));
+	}
+
+	/*
+	 * Compiles the pattern, null if the engine cannot take it
+	 */
+	private static Regex compile(String re, Regex.Engine engine,
+			Regex.Construction construction) {
+		try {
+			return Regex.compile(re, engine, construction);
+		} catch (IllegalArgumentException e) {
+			/* Too many positions for the bit parallel matcher */
+			return null;
+		}
+	}
+
+	private static String pattern(Random r, int depth) {
+		if (depth == 0 || r.nextInt(4) == 0)
+			return ATOMS[r.nextInt(ATOMS.length)];
+
+		String a = pattern(r, depth - 1);
+		switch (r.nextInt(6)) {
+		case 0:
+		case 1:
+			return a + pattern(r, depth - 1);
+		case 2:
+			return "(" + a + "|" + pattern(r, depth - 1) + ")";
+		case 3:
+			return "(" + a + ")*";
+		case 4:
+			return "(" + a + ")+";
+		default:
+			return "(" + a + ")?";
+		}
+	}
+
+	private static String input(Random r, int maxLength) {
+		char[] s = new char[r.nextInt(maxLength + 1)];
+		for (int i = 0; i < s.length; i++) {
+			s[i] = (char) ('a' + r.nextInt(3));
+		}
+		return new String(s);
+	}
+
+	private static List<Match> matches(Iterable<Match> it) {
+		List<Match> l = new ArrayList<Match>();
+		for (Match m : it) {
+			l.add(m);
+		}
+		return l;
+	}
+
+	/*
+	 * The non overlapping leftmost-longest matches, by trying every
+	 * substring
+	 */
+	private static List<Match> findAll(Pattern p, String s) {
+		List<Match> l = new ArrayList<Match>();
+		int from = 0;
+		while (from <= s.length()) {
+			Match m = leftmostLongest(p, s, from);
+			if (m == null)
+				break;
+			l.add(m);
+			from = m.end() > m.start() ? m.end() : m.end() + 1;
+		}
+		return l;
+	}
+
+	private static Match leftmostLongest(Pattern p, String s, int from) {
+		for (int start = from; start <= s.length(); start++) {
+			for (int end = s.length(); end >= start; end--) {
+				if (p.matcher(s).region(start, end).matches())
+					return new Match(start, end);
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * The match ending first, with the leftmost start for that end
+	 */
+	private static Match earliest(Pattern p, String s, int from) {
+		for (int end = from; end <= s.length(); end++) {
+			for (int start = from; start <= end; start++) {
+				if (p.matcher(s).region(start, end).matches())
+					return new Match(start, end);
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,87 @@
+package nfa;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Checks that a corrupt DfaFile is rejected with an IOException when it is
+ * opened, and never fails later while matching.
+ * */
+class MappedDfaTest {
+
+	private static final String PATTERN = "(ab|[c-e]x*)+y?";
+
+	@Test
+	void corruptHeaderFieldsAreRejected() throws IOException {
+		CompiledDfa dfa = Operations.compileRegex(PATTERN);
+		int states = dfa.getStateCount();
+		int classes = dfa.getClasses().getClassCount();
+
+		/* start, patternCount, mapLength and tailClass */
+		assertRejected(corrupt(dfa, 20, states));
+		assertRejected(corrupt(dfa, 20, -1));
+		assertRejected(corrupt(dfa, 24, 0));
+		assertRejected(corrupt(dfa, 28, Character.MAX_VALUE + 2));
+		assertRejected(corrupt(dfa, 28, -1));
+		assertRejected(corrupt(dfa, 32, classes));
+
+		/* The class of the first interval, then the start of the second */
+		int at = 4 * DfaFile.HEADER_INTS;
+		assertRejected(corrupt(dfa, at + 4, classes));
+		assertRejected(corrupt(dfa, at + 8, 0));
+	}
+
+	@Test
+	void transitionsOutOfTheTableAreRejected() throws IOException {
+		CompiledDfa dfa = Operations.compileRegex(PATTERN);
+		int intervals = DfaFile.encode(dfa).order(ByteOrder.LITTLE_ENDIAN)
+				.getInt(36);
+		long at = DfaFile.tableOffset(intervals, dfa.getClasses()
+				.getClassCount());
+
+		assertRejected(corrupt(dfa, (int) at + 4, dfa.getStateCount()));
+		assertRejected(corrupt(dfa, (int) at + 4, -1));
+	}
+
+	@Test
+	void flippedBytesFailOnlyWhenOpened() throws IOException {
+		CompiledDfa dfa = Operations.compileRegex(PATTERN);
+		int size = DfaFile.encode(dfa).remaining();
+
+		for (int i = 0; i < 8 * size; i++) {
+			ByteBuffer buf = DfaFile.encode(dfa);
+			buf.put(i >>> 3, (byte) (buf.get(i >>> 3) ^ (1 << (i & 7))));
+
+			MappedDfa mapped;
+			try {
+				mapped = new MappedDfa(buf);
+			} catch (IOException e) {
+				continue;
+			}
+			for (String s : new String[] { "", "ab", "cxxxy", "\u0100z" }) {
+				mapped.matches(s);
+			}
+		}
+	}
+
+	private static ByteBuffer corrupt(CompiledDfa dfa, int at, int value) {
+		ByteBuffer buf = DfaFile.encode(dfa).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(at, value);
+		return buf;
+	}
+
+	private static void assertRejected(final ByteBuffer buf) {
+		assertThrows(IOException.class, new Executable() {
+			@Override
+			public void execute() throws IOException {
+				new MappedDfa(buf);
+			}
+		});
+	}
+}
@@ -0,0 +1,79 @@
+package nfa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that ParallelMatcher agrees with the sequential DFA on inputs long
+ * enough to be cut into chunks run on the pool, including patterns whose
+ * runs from different states never meet.
+ * */
+class ParallelMatcherTest {
+
+	/* Several chunks for every worker of a pool of 4 */
+	private static final int LENGTH = 3 * ParallelMatcher.MIN_PARALLEL_LENGTH
+			+ 12345;
+
+	@Test
+	void chunkedMatchingAgreesWithTheDfa() {
+		/* The parity of the length and a char near the end decide them */
+		String[] patterns = { "((a|b)(a|b))*", "(a|b)*a(a|b)(a|b)",
+				"(ab|b)*a?", "((a|b)(a|b)(a|b))*|b(a|b)*" };
+		Random random = new Random(23);
+		ForkJoinPool pool = new ForkJoinPool(4);
+
+		try {
+			for (String pattern : patterns) {
+				CompiledDfa dfa = Operations.compileRegex(pattern);
+				ParallelMatcher matcher = new ParallelMatcher(dfa, pool);
+
+				for (int i = 0; i < 6; i++) {
+					char[] s = new char[LENGTH - random.nextInt(3)];
+					for (int j = 0; j < s.length; j++) {
+						s[j] = random.nextInt(3) == 0 && i != 4 ? 'a' : 'b';
+					}
+					if (i == 5) {
+						/* Dead in a chunk in the middle */
+						s[s.length / 2] = 'c';
+					}
+					String str = new String(s);
+
+					assertEquals(dfa.matches(str), matcher.matches(str),
+							pattern + " " + s.length);
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	void stateMapsFollowEveryState() {
+		CompiledDfa dfa = Operations.compileRegex("(ab|b)*a?(c|ba)*");
+		ParallelMatcher matcher = new ParallelMatcher(dfa, ForkJoinPool
+				.commonPool());
+		Random random = new Random(29);
+
+		for (int i = 0; i < 200; i++) {
+			char[] s = new char[random.nextInt(20)];
+			for (int j = 0; j < s.length; j++) {
+				s[j] = (char) ('a' + random.nextInt(3));
+			}
+			String str = new String(s);
+			int from = random.nextInt(s.length + 1);
+
+			int[] map = matcher.stateMap(str, from, s.length);
+			for (int state = 0; state < dfa.getStateCount(); state++) {
+				int t = state;
+				for (int j = from; j < s.length && t != CompiledDfa.DEAD; j++) {
+					t = dfa.next(t, s[j]);
+				}
+				assertEquals(t, map[state], str + " " + from + " " + state);
+			}
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package nfa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks a RegexSet of more patterns than one long holds against matching
+ * each pattern on its own. The words of the patterns lead to states that
+ * differ only by the patterns they accept, which the minimizer must keep
+ * apart.
+ * */
+class RegexSetTest {
+
+	private static final int WORDS = 70;
+
+	@Test
+	void matchSetsSpanSeveralWords() {
+		String[] patterns = new String[WORDS + 5];
+		for (int i = 0; i < WORDS; i++) {
+			String word = word(i);
+			switch (i % 3) {
+			case 0:
+				patterns[i] = word;
+				break;
+			case 1:
+				patterns[i] = word + "x*";
+				break;
+			default:
+				patterns[i] = "(" + word + ")+";
+			}
+		}
+		patterns[WORDS] = "[a-c][a-z]x*";
+		patterns[WORDS + 1] = "[a-z]*";
+		patterns[WORDS + 2] = "c[a-z]+";
+		patterns[WORDS + 3] = "(ab)+";
+		patterns[WORDS + 4] = "b[w-z]";
+
+		RegexSet set = RegexSet.compile(patterns);
+		assertEquals(patterns.length, set.size());
+		Regex[] each = new Regex[patterns.length];
+		for (int i = 0; i < patterns.length; i++) {
+			each[i] = Regex.compile(patterns[i], Regex.Engine.DFA);
+		}
+
+		List<String> inputs = new ArrayList<String>();
+		inputs.add("");
+		for (int i = 0; i < WORDS; i++) {
+			inputs.add(word(i));
+			inputs.add(word(i) + "xx");
+			inputs.add(word(i) + word(i));
+		}
+		Random random = new Random(37);
+		for (int i = 0; i < 500; i++) {
+			char[] s = new char[random.nextInt(7)];
+			for (int j = 0; j < s.length; j++) {
+				s[j] = random.nextInt(4) == 0 ? 'x' : (char) ('a' + random
+						.nextInt(3));
+			}
+			inputs.add(new String(s));
+		}
+
+		for (String str : inputs) {
+			List<Integer> expected = new ArrayList<Integer>();
+			for (int i = 0; i < patterns.length; i++) {
+				if (each[i].matches(str))
+					expected.add(i);
+			}
+			int[] ids = new int[expected.size()];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = expected.get(i);
+			}
+
+			assertArrayEquals(ids, set.matches(str), str);
+			assertEquals(ids.length > 0, set.matchesAny(str), str);
+		}
+	}
+
+	/* Two letters, the first of a to c, so the wide patterns overlap them */
+	private static String word(int i) {
+		return new String(new char[] { (char) ('a' + i / 26),
+				(char) ('a' + i % 26) });
+	}
+}
@@ -0,0 +1,218 @@
+package nfa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Checks that searching stays linear in the length of the input when many
+ * offsets before the earliest match could start a longer one. Trying them
+ * one at a time reads the input quadratically often, which the timeout
+ * would catch long before it finished. Likewise a pattern whose DFAs would
+ * be huge must be searched without building them, on lazy DFAs, and on the
+ * Pike VM once those thrash.
+ * */
+class SearcherTest {
+
+	private static final int LENGTH = 200000;
+
+	private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+	@Test
+	void findReadsLongInputsLinearly() {
+		assertTimeoutPreemptively(TIMEOUT, new Executable() {
+			@Override
+			public void execute() {
+				String s = repeat('a', LENGTH) + "b";
+				for (Regex.Engine engine : Regex.Engine.values()) {
+					Regex regex = Regex.compile("(a|b)*c|b", engine);
+					assertEquals(new Match(LENGTH, LENGTH + 1), regex.find(s),
+							engine.toString());
+					assertEquals(new Match(LENGTH, LENGTH + 1), regex
+							.findEarliest(s, 0), engine.toString());
+				}
+			}
+		});
+	}
+
+	@Test
+	void findStartsBeforeTheEarliestMatch() {
+		assertTimeoutPreemptively(TIMEOUT, new Executable() {
+			@Override
+			public void execute() {
+				String s = repeat('a', LENGTH) + "bc";
+				Regex bounded = Regex.compile("a(a|b)(a|b)(a|b)c|b");
+				assertEquals(new Match(LENGTH - 3, LENGTH + 2), bounded
+						.find(s));
+				Regex unbounded = Regex.compile("(a|b)*c|b");
+				assertEquals(new Match(0, LENGTH + 2), unbounded.find(s));
+				assertNull(unbounded.find(s, LENGTH + 2));
+			}
+		});
+	}
+
+	@Test
+	void repeatedFindsReadLongInputsLinearly() {
+		assertTimeoutPreemptively(TIMEOUT, new Executable() {
+			@Override
+			public void execute() {
+				StringBuilder sb = new StringBuilder();
+				while (sb.length() < 10 * LENGTH) {
+					sb.append("xxxxabc ");
+				}
+				String s = sb.toString();
+
+				/* One find at a time must not read the rest of the input */
+				Regex regex = Regex.compile("(a|b)*c");
+				int found = 0;
+				for (Match m = regex.find(s); m != null; m = regex.find(s, m
+						.end())) {
+					assertEquals(new Match(8 * found + 4, 8 * found + 7), m);
+					found++;
+				}
+				assertEquals(s.length() / 8, found);
+			}
+		});
+	}
+
+	@Test
+	void findAllReadsLongInputsLinearly() {
+		assertTimeoutPreemptively(TIMEOUT, new Executable() {
+			@Override
+			public void execute() {
+				StringBuilder sb = new StringBuilder();
+				List<Match> expected = new ArrayList<Match>();
+				while (sb.length() < LENGTH) {
+					sb.append("aaaabd");
+					expected.add(new Match(sb.length() - 2, sb.length() - 1));
+				}
+
+				List<Match> found = new ArrayList<Match>();
+				for (Match m : Regex.compile("(a|b)*c|b").findAll(sb)) {
+					found.add(m);
+				}
+				assertEquals(expected, found);
+			}
+		});
+	}
+
+	@Test
+	void patternsWithBigDfasAreSearchedLazily() {
+		assertTimeoutPreemptively(TIMEOUT, new Executable() {
+			@Override
+			public void execute() {
+				/* The DFAs of the pattern have about 2^19 states */
+				StringBuilder p = new StringBuilder("(a|b)*a");
+				for (int i = 0; i < 18; i++) {
+					p.append("(a|b)");
+				}
+				String s = repeat('c', LENGTH) + "a" + repeat('b', 18) + "c";
+
+				for (Regex.Engine engine : Regex.Engine.values()) {
+					if (engine == Regex.Engine.DFA)
+						continue;
+					Regex regex = Regex.compile(p.toString(), engine);
+					assertEquals(new Match(LENGTH, LENGTH + 19), regex.find(s),
+							engine.toString());
+					assertEquals(new Match(LENGTH, LENGTH + 19), regex
+							.findEarliest(s, 0), engine.toString());
+				}
+			}
+		});
+	}
+
+	@Test
+	void thrashingLazyDfasLeaveTheSearchToThePikeVm() {
+		assertTimeoutPreemptively(TIMEOUT, new Executable() {
+			@Override
+			public void execute() {
+				StringBuilder p = new StringBuilder("(a|b)*a");
+				for (int i = 0; i < 18; i++) {
+					p.append("(a|b)");
+				}
+				Random random = new Random(7);
+				char[] s = new char[LENGTH];
+				for (int i = 0; i < LENGTH; i++) {
+					s[i] = random.nextBoolean() ? 'a' : 'b';
+				}
+				int end = LENGTH;
+				while (s[end - 19] != 'a') {
+					end--;
+				}
+
+				for (Regex.Engine engine : Regex.Engine.values()) {
+					if (engine == Regex.Engine.DFA)
+						continue;
+					Regex regex = Regex.compile(p.toString(), engine);
+					assertEquals(new Match(0, end), regex.find(new String(s)),
+							engine.toString());
+				}
+			}
+		});
+	}
+
+	@Test
+	void lazySearchesAgreeWithTheDfas() {
+		String[] patterns = { "(a|b)*c|b", "a(b|c)*d|c*", "(ab|ba)+b?",
+				"(a|b)*a(a|b)(a|b)(a|b)" };
+		Random random = new Random(11);
+
+		for (String pattern : patterns) {
+			RegexNode tree = RegexSimplifier.simplify(RegexParser
+					.parse(pattern));
+			final Nfa nfa = ThompsonConstruction.build(tree);
+			Nfa reversed = nfa.reverse();
+			ThreadLocal<PikeVm> pikeVm = new ThreadLocal<PikeVm>() {
+				@Override
+				protected PikeVm initialValue() {
+					return new PikeVm(nfa);
+				}
+			};
+
+			/* Caches this small are cleared, and give up, all the time */
+			Searcher lazy = new Searcher(new LazyDfa(nfa, 4, false),
+					new LazyDfa(nfa, 4, true), new LazyDfa(reversed, 4, false),
+					new LazyDfa(reversed, 4, true), Prefilter.of(tree), tree
+							.maxLength(), pikeVm);
+			Regex dfa = Regex.compile(pattern, Regex.Engine.DFA);
+
+			for (int i = 0; i < 200; i++) {
+				char[] s = new char[random.nextInt(40)];
+				for (int j = 0; j < s.length; j++) {
+					s[j] = (char) ('a' + random.nextInt(4));
+				}
+				String str = new String(s);
+
+				assertEquals(list(dfa.findAll(str)), list(lazy.findAll(str)),
+						pattern + " " + str);
+				for (int from = 0; from <= s.length; from++) {
+					assertEquals(dfa.findEarliest(str, from), lazy
+							.findEarliest(str, from), pattern + " " + str);
+				}
+			}
+		}
+	}
+
+	private static List<Match> list(Iterable<Match> matches) {
+		List<Match> list = new ArrayList<Match>();
+		for (Match m : matches) {
+			list.add(m);
+		}
+		return list;
+	}
+
+	private static String repeat(char c, int n) {
+		char[] s = new char[n];
+		Arrays.fill(s, c);
+		return new String(s);
+	}
+}
@@ -0,0 +1,93 @@
+package nfa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the matches a StreamMatcher reports do not depend on where
+ * the stream is cut into chunks, and that the bytes it keeps for them do
+ * not grow with a stream in which no match is pending.
+ * */
+class StreamMatcherTest {
+
+	/* Including patterns with empty matches, and runs longer than a chunk */
+	private static final String[] PATTERNS = { "ab|a(b|c)*d", "a(a|b)*c",
+			"a*", "(ab)*|c", "b?", "(a|b)*c|b", "dd|d(a|b)+" };
+
+	@Test
+	void listenerReportsTheMatchesOfFindAll() {
+		Random random = new Random(17);
+
+		for (String pattern : PATTERNS) {
+			Regex regex = Regex.compile(pattern);
+			CompiledDfa dfa = Operations.compileRegex(pattern);
+
+			for (int i = 0; i < 300; i++) {
+				byte[] bytes = new byte[random.nextInt(60)];
+				for (int j = 0; j < bytes.length; j++) {
+					bytes[j] = (byte) ('a' + random.nextInt(4));
+				}
+				String str = new String(bytes, StandardCharsets.ISO_8859_1);
+
+				List<Match> expected = new ArrayList<Match>();
+				for (Match m : regex.findAll(str)) {
+					expected.add(m);
+				}
+
+				final List<Match> found = new ArrayList<Match>();
+				StreamMatcher matcher = new StreamMatcher(dfa,
+						new StreamMatcher.Listener() {
+							@Override
+							public void onMatch(long start, long end) {
+								found.add(new Match((int) start, (int) end));
+							}
+						});
+				for (int at = 0; at < bytes.length;) {
+					int len = Math.min(1 + random.nextInt(6), bytes.length
+							- at);
+					matcher.feed(ByteBuffer.wrap(bytes, at, len));
+					at += len;
+				}
+				matcher.finish();
+
+				assertEquals(expected, found, pattern + " " + str);
+				assertEquals(regex.matches(str), matcher.isMatch(), pattern
+						+ " " + str);
+			}
+		}
+	}
+
+	@Test
+	void bytesAreNotRetainedWithoutAPendingMatch() {
+		final List<Match> found = new ArrayList<Match>();
+		StreamMatcher matcher = new StreamMatcher(Operations
+				.compileRegex("a(a|b)*c"), new StreamMatcher.Listener() {
+			@Override
+			public void onMatch(long start, long end) {
+				found.add(new Match((int) start, (int) end));
+			}
+		});
+
+		byte[] b = new byte[1 << 20];
+		Arrays.fill(b, (byte) 'b');
+		matcher.feed(ByteBuffer.wrap(new byte[] { 'a' }));
+		for (int i = 0; i < 20; i++) {
+			matcher.feed(ByteBuffer.wrap(b));
+			assertEquals(0, matcher.getRetainedBytes());
+		}
+		matcher.feed(ByteBuffer.wrap(new byte[] { 'c' }));
+		matcher.finish();
+
+		List<Match> expected = new ArrayList<Match>();
+		expected.add(new Match(0, 20 * b.length + 2));
+		assertEquals(expected, found);
+	}
+}